@@ -0,0 +1,329 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.*;
+import java.lang.ref.*;
+
+
+/**
+ * Registry of the accelerators of menu items, across all menus in the process.
+ * <p>
+ * Accelerators are registered in a scope, menus built by the menu maker register
+ * their accelerators in the scope of the window they decorate; the {@code null}
+ * scope is process-wide, and its accelerators are seen from every window. When
+ * an accelerator is registered while a live item already owns it in the same
+ * scope, or in the process-wide scope, the conflict is reported as a warning to
+ * {@link JMenuMaker#diagnostics} and the new item becomes the owner.
+ * <p>
+ * Items are only weakly referenced, and an item no longer owns an accelerator
+ * once it has been given another accelerator.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class AcceleratorRegistry
+{
+    /**
+     * Constructor
+     */
+    public AcceleratorRegistry()
+    {
+        //Nothing to initialise
+    }
+    
+    
+    
+    /**
+     * The process-wide registry used by the menu maker
+     */
+    private static final AcceleratorRegistry shared = new AcceleratorRegistry();
+    
+    
+    
+    /**
+     * The process-wide scope
+     */
+    private final HashMap<KeyStroke, Binding> global = new HashMap<KeyStroke, Binding>();
+    
+    /**
+     * Map from scopes to their bindings
+     */
+    private final WeakHashMap<Object, HashMap<KeyStroke, Binding>> scopes = new WeakHashMap<Object, HashMap<KeyStroke, Binding>>();
+    
+    /**
+     * Map from items to the scopes they are registered in
+     */
+    private final WeakHashMap<JMenuItem, WeakReference<Object>> itemScopes = new WeakHashMap<JMenuItem, WeakReference<Object>>();
+    
+    /**
+     * The number of conflicts that have been detected
+     */
+    private long conflicts = 0;
+    
+    
+    
+    /**
+     * The owner of an accelerator
+     */
+    private static final class Binding
+    {
+        /**
+         * Constructor
+         *
+         * @param  keyStroke  The accelerator
+         * @param  id         The item's ID, {@code null} if none
+         * @param  item       The item
+         */
+        Binding(final KeyStroke keyStroke, final String id, final JMenuItem item)
+        {
+            this.keyStroke = keyStroke;
+            this.id = id;
+            this.item = new WeakReference<JMenuItem>(item);
+        }
+        
+        /**
+         * The accelerator
+         */
+        final KeyStroke keyStroke;
+        
+        /**
+         * The item's ID, {@code null} if none
+         */
+        final String id;
+        
+        /**
+         * The item
+         */
+        final WeakReference<JMenuItem> item;
+        
+        /**
+         * Gets the item, if it still owns the accelerator
+         *
+         * @return  The item, {@code null} if collected or given another accelerator
+         */
+        JMenuItem get()
+        {
+            final JMenuItem item = this.item.get();
+            if ((item == null) || (this.keyStroke.equals(item.getAccelerator()) == false))
+                return null;
+            return item;
+        }
+    }
+    
+    
+    
+    /**
+     * Gets the process-wide registry
+     *
+     * @return  The process-wide registry
+     */
+    public static AcceleratorRegistry getShared()
+    {
+        return shared;
+    }
+    
+    
+    
+    /**
+     * Registers an item as the owner of an accelerator
+     *
+     * @param   scope      The scope, normally the window, {@code null} for the process-wide scope
+     * @param   keyStroke  The accelerator
+     * @param   id         The item's ID, {@code null} if none
+     * @param   item       The item
+     * @return             The item that owned the accelerator before, {@code null} if none
+     */
+    public synchronized JMenuItem register(final Object scope, final KeyStroke keyStroke, final String id, final JMenuItem item)
+    {
+        HashMap<KeyStroke, Binding> bindings = scope == null ? this.global : this.scopes.get(scope);
+        if (bindings == null)
+            this.scopes.put(scope, bindings = new HashMap<KeyStroke, Binding>());
+        
+        Binding previous = bindings.put(keyStroke, new Binding(keyStroke, id, item));
+        this.itemScopes.put(item, new WeakReference<Object>(scope));
+        
+        JMenuItem owner = previous == null ? null : previous.get();
+        if ((owner == null) && (scope != null) && ((previous = this.global.get(keyStroke)) != null))
+            owner = previous.get();
+        if ((owner == null) || (owner == item))
+            return null;
+        
+        this.conflicts++;
+        if (JMenuMaker.diagnostics.isEnabled(MenuDiagnostics.Level.WARN))
+            JMenuMaker.diagnostics.report(MenuDiagnostics.Level.WARN, null, 0, MenuDiagnostics.ACCELERATOR_CONFLICT,
+                                          "Accelerator " + keyStroke + " of " + name(id, item) + " conflicts with " + name(previous.id, owner));
+        return owner;
+    }
+    
+    /**
+     * Gives an item another accelerator, in the scope it is registered in, or otherwise
+     * in the scope of the window whose menu bar it is in, and sets the accelerator on the item
+     *
+     * @param   item       The item
+     * @param   id         The item's ID, {@code null} if none
+     * @param   keyStroke  The new accelerator, {@code null} to remove the item's accelerator
+     * @return             The item that owned the new accelerator before, {@code null} if none
+     */
+    public synchronized JMenuItem remap(final JMenuItem item, final String id, final KeyStroke keyStroke)
+    {
+        final WeakReference<Object> scopeReference = this.itemScopes.get(item);
+        final Object scope = scopeReference == null ? getWindow(item) : scopeReference.get();
+        
+        unregister(item);
+        item.setAccelerator(keyStroke);
+        if (keyStroke == null)
+            return null;
+        return register(scope, keyStroke, id, item);
+    }
+    
+    /**
+     * Unregisters the accelerator of an item
+     *
+     * @param  item  The item
+     */
+    public synchronized void unregister(final JMenuItem item)
+    {
+        final WeakReference<Object> scopeReference = this.itemScopes.remove(item);
+        if (scopeReference == null)
+            return;
+        final Object scope = scopeReference.get();
+        final HashMap<KeyStroke, Binding> bindings = scope == null ? this.global : this.scopes.get(scope);
+        if (bindings == null)
+            return;
+        
+        final Iterator<Binding> iterator = bindings.values().iterator();
+        while (iterator.hasNext())
+            if (iterator.next().item.get() == item)
+            {
+                iterator.remove();
+                break;
+            }
+    }
+    
+    /**
+     * Unregisters all accelerators in a scope
+     *
+     * @param  scope  The scope, {@code null} for the process-wide scope
+     */
+    public synchronized void unregisterAll(final Object scope)
+    {
+        if (scope == null)
+            this.global.clear();
+        else
+            this.scopes.remove(scope);
+    }
+    
+    
+    
+    /**
+     * Gets the item that owns an accelerator, as seen from a scope
+     *
+     * @param   scope      The scope, normally the window, {@code null} for the process-wide scope
+     * @param   keyStroke  The accelerator
+     * @return             The item, {@code null} if none
+     */
+    public synchronized JMenuItem lookup(final Object scope, final KeyStroke keyStroke)
+    {
+        final Binding binding = find(scope, keyStroke);
+        return binding == null ? null : binding.get();
+    }
+    
+    /**
+     * Gets the ID of the item that owns an accelerator, as seen from a scope
+     *
+     * @param   scope      The scope, normally the window, {@code null} for the process-wide scope
+     * @param   keyStroke  The accelerator
+     * @return             The item's ID, {@code null} if none or if the item has no ID
+     */
+    public synchronized String lookupId(final Object scope, final KeyStroke keyStroke)
+    {
+        final Binding binding = find(scope, keyStroke);
+        return (binding == null) || (binding.get() == null) ? null : binding.id;
+    }
+    
+    /**
+     * Gets the number of conflicts that have been detected
+     *
+     * @return  The number of conflicts
+     */
+    public synchronized long getConflicts()
+    {
+        return this.conflicts;
+    }
+    
+    
+    
+    /**
+     * Finds the live binding of an accelerator, as seen from a scope
+     *
+     * @param   scope      The scope, {@code null} for the process-wide scope
+     * @param   keyStroke  The accelerator
+     * @return             The binding, {@code null} if none
+     */
+    private Binding find(final Object scope, final KeyStroke keyStroke)
+    {
+        if (scope != null)
+        {
+            final HashMap<KeyStroke, Binding> bindings = this.scopes.get(scope);
+            final Binding binding = bindings == null ? null : bindings.get(keyStroke);
+            if ((binding != null) && (binding.get() != null))
+                return binding;
+        }
+        return this.global.get(keyStroke);
+    }
+    
+    /**
+     * Gets the window whose menu bar an item is in
+     *
+     * @param   item  The item
+     * @return        The window, {@code null} if the item is not in a menu bar in a window
+     */
+    private static Object getWindow(final JMenuItem item)
+    {
+        Component component = item;
+        while (component != null)
+        {
+            if (component instanceof JMenuBar)
+            {
+                final JRootPane rootPane = SwingUtilities.getRootPane(component);
+                return rootPane == null ? null : rootPane.getParent();
+            }
+            component = component instanceof JPopupMenu ? ((JPopupMenu)component).getInvoker() : component.getParent();
+        }
+        return null;
+    }
+    
+    /**
+     * Describes an item for a diagnostic
+     *
+     * @param   id    The item's ID, {@code null} if none
+     * @param   item  The item
+     * @return        The item's description
+     */
+    private static String name(final String id, final JMenuItem item)
+    {
+        return id != null ? id.replace("\0", "~") : "\"" + item.getText() + "\"";
+    }
+    
+}
+
+
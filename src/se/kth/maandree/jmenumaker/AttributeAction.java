@@ -0,0 +1,300 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import javax.swing.*;
+import java.io.*;
+import java.nio.*;
+
+
+/**
+ * Compiled {@code setAttribute=}, {@code setValue=} and {@code targetId=} triple;
+ * an attribute of a slider to update when an item is clicked.
+ * <p>
+ * The value is a number, optionally followed by an operator: {@code +} adds the
+ * number to the current value, {@code -} subtracts it from the current value and
+ * {@code --} subtracts the current value from it. Without an operator the value
+ * is set to the number. The result is clamped to the slider's range.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+final class AttributeAction
+{
+    /**
+     * Constructor
+     *
+     * @param  attribute  The attribute to update
+     * @param  operator   How the attribute is updated
+     * @param  operand    The number in the value
+     * @param  targetId   The ID of the slider
+     */
+    private AttributeAction(final Attribute attribute, final Operator operator, final int operand, final String targetId)
+    {
+        this.attribute = attribute;
+        this.operator = operator;
+        this.operand = operand;
+        this.targetId = targetId;
+    }
+    
+    
+    
+    /**
+     * Slider attribute
+     */
+    static enum Attribute
+    {
+        /**
+         * The slider's minimum value
+         */
+        MIN,
+        
+        /**
+         * The slider's maximum value
+         */
+        MAX,
+        
+        /**
+         * The slider's extent
+         */
+        EXTENT,
+        
+        /**
+         * The slider's value
+         */
+        VALUE
+    }
+    
+    /**
+     * How an attribute is updated
+     */
+    static enum Operator
+    {
+        /**
+         * The attribute is set to the operand
+         */
+        SET,
+        
+        /**
+         * The operand is added to the attribute, written as {@code +}
+         */
+        ADD,
+        
+        /**
+         * The operand is subtracted from the attribute, written as {@code -}
+         */
+        SUBTRACT,
+        
+        /**
+         * The attribute is subtracted from the operand, written as {@code --}
+         */
+        SUBTRACT_FROM
+    }
+    
+    
+    
+    /**
+     * The attribute to update
+     */
+    final Attribute attribute;
+    
+    /**
+     * How the attribute is updated
+     */
+    final Operator operator;
+    
+    /**
+     * The number in the value
+     */
+    final int operand;
+    
+    /**
+     * The ID of the slider
+     */
+    final String targetId;
+    
+    
+    
+    /**
+     * Compiles an action
+     *
+     * @param   attribute  The attribute, as written in {@code setAttribute=}
+     * @param   value      The value, as written in {@code setValue=}
+     * @param   targetId   The ID of the slider
+     * @return             The action, {@code null} if the attribute or value is malformed
+     */
+    static AttributeAction compile(final String attribute, final String value, final String targetId)
+    {
+        final Attribute attr;
+        if      (attribute.equals("min"))     attr = Attribute.MIN;
+        else if (attribute.equals("max"))     attr = Attribute.MAX;
+        else if (attribute.equals("extent"))  attr = Attribute.EXTENT;
+        else if (attribute.equals("value"))   attr = Attribute.VALUE;
+        else
+            return null;
+        
+        final Operator operator;
+        if      (value.endsWith("--"))  operator = Operator.SUBTRACT_FROM;
+        else if (value.endsWith("-"))   operator = Operator.SUBTRACT;
+        else if (value.endsWith("+"))   operator = Operator.ADD;
+        else                            operator = Operator.SET;
+        
+        final int suffix = operator == Operator.SET ? 0 : operator == Operator.SUBTRACT_FROM ? 2 : 1;
+        try
+        {
+            return new AttributeAction(attr, operator, Integer.parseInt(value.substring(0, value.length() - suffix)), targetId);
+        }
+        catch (final NumberFormatException err)
+        {
+            return null;
+        }
+    }
+    
+    
+    
+    /**
+     * Writes the action in the compiled binary format
+     *
+     * @param   out      The output stream
+     * @param   strings  The string table
+     *
+     * @throws  IOException  On I/O exception
+     */
+    void write(final DataOutputStream out, final MenuBinary.StringTable strings) throws IOException
+    {
+        out.writeByte(this.attribute.ordinal());
+        out.writeByte(this.operator.ordinal());
+        out.writeInt(this.operand);
+        out.writeInt(strings.get(this.targetId));
+    }
+    
+    /**
+     * Reads an action in the compiled binary format
+     *
+     * @param   buffer   The buffer to read from
+     * @param   strings  The string table
+     * @return           The action
+     */
+    static AttributeAction read(final ByteBuffer buffer, final String[] strings)
+    {
+        final Attribute attribute = Attribute.values()[buffer.get()];
+        final Operator operator = Operator.values()[buffer.get()];
+        final int operand = buffer.getInt();
+        return new AttributeAction(attribute, operator, operand, MenuBinary.string(strings, buffer.getInt()));
+    }
+    
+    
+    
+    /**
+     * Gets the attribute as written in {@code setAttribute=}
+     *
+     * @return  The attribute's name
+     */
+    String getAttributeText()
+    {
+        return this.attribute.name().toLowerCase();
+    }
+    
+    /**
+     * Gets the value as written in {@code setValue=}, the number followed by the operator
+     *
+     * @return  The value
+     */
+    String getValueText()
+    {
+        switch (this.operator)
+        {
+            case ADD:            return this.operand + "+";
+            case SUBTRACT:       return this.operand + "-";
+            case SUBTRACT_FROM:  return this.operand + "--";
+            default:             return Integer.toString(this.operand);
+        }
+    }
+    
+    /**
+     * Updates the attribute of a slider
+     *
+     * @param  target  The slider
+     */
+    void apply(final JSlider target)
+    {
+        final int min = target.getMinimum();
+        final int max = target.getMaximum();
+        final int extent = target.getExtent();
+        final int value = target.getValue();
+        
+        switch (this.attribute)
+        {
+            case MIN:
+            {
+                int val = evaluate(min);
+                if (val > max)    val = max;
+                if (value < val)  target.setValue(val);
+                target.setMinimum(val);
+                break;
+            }
+            
+            case MAX:
+            {
+                int val = evaluate(max);
+                if (val < min)    val = min;
+                if (value > val)  target.setValue(val);
+                target.setMaximum(val);
+                break;
+            }
+            
+            case EXTENT:
+            {
+                int val = evaluate(extent);
+                if (val > max - min)  val = max - min;
+                target.setExtent(val);
+                break;
+            }
+            
+            case VALUE:
+            {
+                int val = evaluate(value);
+                if (val < min)  val = min;
+                if (val > max)  val = max;
+                target.setValue(val);
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Applies the operator
+     *
+     * @param   current  The attribute's current value
+     * @return           The attribute's new value, before clamping
+     */
+    private int evaluate(final int current)
+    {
+        switch (this.operator)
+        {
+            case ADD:            return current + this.operand;
+            case SUBTRACT:       return current - this.operand;
+            case SUBTRACT_FROM:  return this.operand - current;
+            default:             return this.operand;
+        }
+    }
+    
+}
+
+
@@ -0,0 +1,75 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+
+/**
+ * Diagnostics sink that prints the messages to stderr
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public class ConsoleDiagnostics implements MenuDiagnostics
+{
+    /**
+     * Constructor, all levels are printed
+     */
+    public ConsoleDiagnostics()
+    {
+        this(Level.TRACE);
+    }
+    
+    /**
+     * Constructor
+     *
+     * @param  minimum  The lowest level to print
+     */
+    public ConsoleDiagnostics(final Level minimum)
+    {
+        this.minimum = minimum;
+    }
+    
+    
+    
+    /**
+     * The lowest level to print
+     */
+    private final Level minimum;
+    
+    
+    
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled(final Level level)
+    {
+        return level.compareTo(this.minimum) >= 0;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public void report(final Level level, final String file, final int line, final String code, final String message)
+    {
+        System.err.println(message);
+    }
+    
+}
+
+
@@ -0,0 +1,202 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import javax.imageio.*;
+import javax.swing.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Icon atlas; one image containing many icons, and an index naming the icons' rectangles.
+ * <p>
+ * Icons in an atlas are referred to as {@code atlas.png#name}. The index is the file
+ * {@code atlas.png.index}, with one icon per line: its name followed by the x and y
+ * position, the width and the height of its rectangle, separated by blank space.
+ * Blank lines and lines starting with {@code #} are ignored. The image is read and
+ * decoded once, and each icon is a view of the same raster.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+final class IconAtlas
+{
+    /**
+     * Constructor
+     *
+     * @param  file  The atlas image file
+     */
+    IconAtlas(final String file)
+    {
+        this.file = file;
+    }
+    
+    
+    
+    /**
+     * The suffix of the index file
+     */
+    public static final String INDEX_SUFFIX = ".index";
+    
+    
+    
+    /**
+     * The atlas image file
+     */
+    private final String file;
+    
+    /**
+     * The decoded image, {@code null} until loaded or if it could not be read
+     */
+    private BufferedImage image = null;
+    
+    /**
+     * Map from icon names to their rectangles, as x, y, width and height, {@code null} until loaded
+     */
+    private HashMap<String, int[]> index = null;
+    
+    
+    
+    /**
+     * Splits an icon reference into an atlas file and an icon name
+     *
+     * @param   icon  The icon reference
+     * @return        The atlas file and the icon name, {@code null} if the reference is a regular file
+     */
+    static String[] split(final String icon)
+    {
+        final int hash = icon.lastIndexOf('#');
+        if ((hash < 0) || (new File(icon)).exists())
+            return null;
+        return new String[] { icon.substring(0, hash), icon.substring(hash + 1) };
+    }
+    
+    
+    
+    /**
+     * Loads the image and index, if not already loaded
+     *
+     * @return  Whether the image had to be decoded
+     */
+    synchronized boolean load()
+    {
+        if (this.index != null)
+            return false;
+        
+        this.index = new HashMap<String, int[]>();
+        try
+        {
+            this.image = ImageIO.read(new File(this.file));
+        }
+        catch (final IOException err)
+        {
+            if (JMenuMaker.diagnostics.isEnabled(MenuDiagnostics.Level.WARN))
+                JMenuMaker.diagnostics.report(MenuDiagnostics.Level.WARN, this.file, 0, MenuDiagnostics.UNREADABLE_ATLAS,
+                                              "Icon atlas could not be read: " + this.file);
+        }
+        if (this.image == null)
+            return true;
+        
+        final String indexFile = this.file + INDEX_SUFFIX;
+        try
+        {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+            try
+            {
+                String line;
+                for (int lineno = 1; (line = reader.readLine()) != null; lineno++)
+                {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#"))
+                        continue;
+                    
+                    final String[] fields = line.split("\\s+");
+                    final int[] rectangle = parseRectangle(fields);
+                    if (rectangle == null)
+                    {
+                        if (JMenuMaker.diagnostics.isEnabled(MenuDiagnostics.Level.WARN))
+                            JMenuMaker.diagnostics.report(MenuDiagnostics.Level.WARN, indexFile, lineno, MenuDiagnostics.MALFORMED_ATLAS_ENTRY,
+                                                          "Malformed icon atlas entry ignored at line " + lineno + " in " + indexFile + ": " + line);
+                    }
+                    else
+                        this.index.put(fields[0], rectangle);
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (final IOException err)
+        {
+            if (JMenuMaker.diagnostics.isEnabled(MenuDiagnostics.Level.WARN))
+                JMenuMaker.diagnostics.report(MenuDiagnostics.Level.WARN, indexFile, 0, MenuDiagnostics.UNREADABLE_ATLAS,
+                                              "Icon atlas index could not be read: " + indexFile);
+        }
+        return true;
+    }
+    
+    /**
+     * Parses an index entry
+     *
+     * @param   fields  The fields of the entry: the name, x, y, width and height
+     * @return          The rectangle, as x, y, width and height, {@code null} if malformed or outside the image
+     */
+    private int[] parseRectangle(final String[] fields)
+    {
+        if (fields.length != 5)
+            return null;
+        
+        final int[] rectangle = new int[4];
+        try
+        {
+            for (int i = 0; i < 4; i++)
+                rectangle[i] = Integer.parseInt(fields[i + 1]);
+        }
+        catch (final NumberFormatException err)
+        {
+            return null;
+        }
+        
+        if ((rectangle[0] < 0) || (rectangle[1] < 0) || (rectangle[2] <= 0) || (rectangle[3] <= 0))
+            return null;
+        if ((rectangle[0] + rectangle[2] > this.image.getWidth()) || (rectangle[1] + rectangle[3] > this.image.getHeight()))
+            return null;
+        return rectangle;
+    }
+    
+    /**
+     * Gets an icon in the atlas, the atlas must be loaded
+     *
+     * @param   name  The name of the icon
+     * @return        The icon, {@code null} if the atlas has no such icon
+     */
+    synchronized ImageIcon getIcon(final String name)
+    {
+        final int[] rectangle = this.index.get(name);
+        if (rectangle == null)
+            return null;
+        return new ImageIcon(this.image.getSubimage(rectangle[0], rectangle[1], rectangle[2], rectangle[3]));
+    }
+    
+}
+
+
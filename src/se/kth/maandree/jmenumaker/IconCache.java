@@ -0,0 +1,417 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.ref.*;
+
+
+/**
+ * Cache of menu icons, keyed by the icon file.
+ * Icons are decoded on a background executor and paint as an empty placeholder
+ * until they are decoded, the components that have painted the placeholder are
+ * then laid out and painted again. An icon is kept as long as it is used by a
+ * component, and thereafter until the memory is needed. Icons referred to as
+ * {@code atlas.png#name} are taken from an {@linkplain IconAtlas icon atlas}.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class IconCache
+{
+    /**
+     * Constructor
+     *
+     * @param  executor  The executor on which icons are decoded, {@code null} to decode icons
+     *                   synchronously when they are first requested
+     */
+    public IconCache(final Executor executor)
+    {
+        this.executor = executor;
+    }
+    
+    
+    
+    /**
+     * The width and height of placeholders
+     */
+    public static final int PLACEHOLDER_SIZE = 16;
+    
+    /**
+     * The process-wide cache used when building menus
+     */
+    private static final IconCache shared = new IconCache(ForkJoinPool.commonPool());
+    
+    
+    
+    /**
+     * The executor on which icons are decoded, {@code null} if decoded synchronously
+     */
+    private final Executor executor;
+    
+    /**
+     * The cached icons
+     */
+    private final HashMap<String, Entry> icons = new HashMap<String, Entry>();
+    
+    /**
+     * The icon atlases, kept until the memory is needed
+     */
+    private final HashMap<String, SoftReference<IconAtlas>> atlases = new HashMap<String, SoftReference<IconAtlas>>();
+    
+    /**
+     * Queue of cached icons that have been collected
+     */
+    private final ReferenceQueue<CachedIcon> collected = new ReferenceQueue<CachedIcon>();
+    
+    /**
+     * The number of lookups that where served from the cache
+     */
+    private long hits = 0;
+    
+    /**
+     * The number of lookups that required the icon to be decoded
+     */
+    private long misses = 0;
+    
+    /**
+     * The number of decoded images, an icon atlas is decoded once for all its icons
+     */
+    private long decodes = 0;
+    
+    /**
+     * The total time spent decoding icons, in nanoseconds
+     */
+    private long decodeTime = 0;
+    
+    
+    
+    /**
+     * Cache entry, cleared when the icon is no longer used and the memory is needed
+     */
+    private static final class Entry extends SoftReference<CachedIcon>
+    {
+        /**
+         * Constructor
+         *
+         * @param  file   The icon file
+         * @param  icon   The icon
+         * @param  queue  The queue on which the entry is enqueued when cleared
+         */
+        Entry(final String file, final CachedIcon icon, final ReferenceQueue<CachedIcon> queue)
+        {
+            super(icon, queue);
+            this.file = file;
+        }
+        
+        /**
+         * The icon file
+         */
+        final String file;
+    }
+    
+    
+    /**
+     * Icon that paints an empty placeholder until it has been decoded
+     */
+    private static final class CachedIcon implements Icon
+    {
+        /**
+         * The decoded icon, {@code null} until decoded
+         */
+        volatile ImageIcon icon = null;
+        
+        /**
+         * The components that have painted the placeholder, only accessed on the event dispatch thread
+         */
+        WeakHashMap<Component, Boolean> waiting = new WeakHashMap<Component, Boolean>();
+        
+        
+        
+        /**
+         * {@inheritDoc}
+         */
+        public void paintIcon(final Component c, final Graphics g, final int x, final int y)
+        {
+            final ImageIcon icon = this.icon;
+            if (icon != null)
+                icon.paintIcon(c, g, x, y);
+            else if ((c != null) && (this.waiting != null))
+                this.waiting.put(c, Boolean.TRUE);
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public int getIconWidth()
+        {
+            final ImageIcon icon = this.icon;
+            return icon == null ? PLACEHOLDER_SIZE : icon.getIconWidth();
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public int getIconHeight()
+        {
+            final ImageIcon icon = this.icon;
+            return icon == null ? PLACEHOLDER_SIZE : icon.getIconHeight();
+        }
+        
+        /**
+         * Lays out and paints the components that have painted the placeholder,
+         * must be called on the event dispatch thread after the icon has been decoded
+         */
+        void refresh()
+        {
+            final WeakHashMap<Component, Boolean> waiting = this.waiting;
+            this.waiting = null;
+            for (final Component component : waiting.keySet())
+            {
+                if (component instanceof JComponent)
+                    ((JComponent)component).revalidate();
+                component.repaint();
+            }
+        }
+    }
+    
+    
+    
+    /**
+     * Gets the process-wide cache
+     *
+     * @return  The process-wide cache
+     */
+    public static IconCache getShared()
+    {
+        return shared;
+    }
+    
+    
+    
+    /**
+     * Gets an icon, it is decoded in the background if it is not cached
+     *
+     * @param   file  The icon file
+     * @return        The icon
+     */
+    public Icon get(final String file)
+    {
+        final CachedIcon icon;
+        synchronized (this)
+        {
+            expunge();
+            final Entry entry = this.icons.get(file);
+            final CachedIcon cached = entry == null ? null : entry.get();
+            if (cached != null)
+            {
+                this.hits++;
+                return cached;
+            }
+            this.misses++;
+            this.icons.put(file, new Entry(file, icon = new CachedIcon(), this.collected));
+        }
+        
+        if (this.executor == null)
+        {
+            decode(file, icon);
+            icon.waiting = null;
+        }
+        else
+            this.executor.execute(new Runnable()
+                    {
+                        /**
+                         * {@inheritDoc}
+                         */
+                        public void run()
+                        {
+                            decode(file, icon);
+                            SwingUtilities.invokeLater(new Runnable()
+                                    {
+                                        /**
+                                         * {@inheritDoc}
+                                         */
+                                        public void run()
+                                        {
+                                            icon.refresh();
+                                        }
+                                    });
+                        }
+                    });
+        
+        return icon;
+    }
+    
+    /**
+     * Decodes an icon, icons referred to as {@code atlas.png#name} are taken from an {@linkplain IconAtlas icon atlas}
+     *
+     * @param  file  The icon file
+     * @param  icon  The icon to decode into
+     */
+    private void decode(final String file, final CachedIcon icon)
+    {
+        final String[] reference = IconAtlas.split(file);
+        if (reference != null)
+        {
+            final IconAtlas atlas = getAtlas(reference[0]);
+            final long start = System.nanoTime();
+            final boolean decoded = atlas.load();
+            final long time = System.nanoTime() - start;
+            
+            final ImageIcon atlasIcon = atlas.getIcon(reference[1]);
+            icon.icon = atlasIcon != null ? atlasIcon : new ImageIcon(file);
+            
+            if (decoded)
+                synchronized (this)
+                {
+                    this.decodes++;
+                    this.decodeTime += time;
+                }
+            return;
+        }
+        
+        final long start = System.nanoTime();
+        icon.icon = new ImageIcon(file);
+        final long time = System.nanoTime() - start;
+        
+        synchronized (this)
+        {
+            this.decodes++;
+            this.decodeTime += time;
+        }
+    }
+    
+    /**
+     * Gets an icon atlas, creating it if it is not cached
+     *
+     * @param   file  The atlas image file
+     * @return        The icon atlas, not necessarily loaded
+     */
+    private synchronized IconAtlas getAtlas(final String file)
+    {
+        final SoftReference<IconAtlas> reference = this.atlases.get(file);
+        IconAtlas atlas = reference == null ? null : reference.get();
+        if (atlas == null)
+            this.atlases.put(file, new SoftReference<IconAtlas>(atlas = new IconAtlas(file)));
+        return atlas;
+    }
+    
+    /**
+     * Removes the entries of collected icons
+     */
+    private void expunge()
+    {
+        Reference<? extends CachedIcon> reference;
+        while ((reference = this.collected.poll()) != null)
+        {
+            final Entry entry = (Entry)reference;
+            if (this.icons.get(entry.file) == entry)
+                this.icons.remove(entry.file);
+        }
+    }
+    
+    /**
+     * Removes an icon, or an icon atlas, from the cache, it is decoded again the next time it is requested;
+     * icons already taken from a removed atlas are kept until they are removed too
+     *
+     * @param   file  The icon file, or the atlas image file
+     * @return        Whether the icon or atlas was cached
+     */
+    public synchronized boolean invalidate(final String file)
+    {
+        final boolean atlas = this.atlases.remove(file) != null;
+        return (this.icons.remove(file) != null) || atlas;
+    }
+    
+    /**
+     * Removes all icons from the cache
+     */
+    public synchronized void invalidateAll()
+    {
+        this.icons.clear();
+        this.atlases.clear();
+    }
+    
+    
+    
+    /**
+     * Gets the number of cached icons, including icons that are being decoded
+     *
+     * @return  The number of cached icons
+     */
+    public synchronized int size()
+    {
+        expunge();
+        return this.icons.size();
+    }
+    
+    /**
+     * Gets the number of lookups that where served from the cache
+     *
+     * @return  The number of cache hits
+     */
+    public synchronized long getHits()
+    {
+        return this.hits;
+    }
+    
+    /**
+     * Gets the number of lookups that required the icon to be decoded
+     *
+     * @return  The number of cache misses
+     */
+    public synchronized long getMisses()
+    {
+        return this.misses;
+    }
+    
+    /**
+     * Gets the number of decoded images, an icon atlas is decoded once for all its icons
+     *
+     * @return  The number of decoded images
+     */
+    public synchronized long getDecodes()
+    {
+        return this.decodes;
+    }
+    
+    /**
+     * Gets the total time spent decoding icons
+     *
+     * @return  The total decode time, in nanoseconds
+     */
+    public synchronized long getDecodeTime()
+    {
+        return this.decodeTime;
+    }
+    
+    /**
+     * Resets the hit, miss and decode counters
+     */
+    public synchronized void resetStatistics()
+    {
+        this.hits = this.misses = this.decodes = this.decodeTime = 0;
+    }
+    
+}
+
+
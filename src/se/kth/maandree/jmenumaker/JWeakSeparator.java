@@ -83,7 +83,7 @@ public class JWeakSeparator extends JSeparator
         
         if (list != null)
             for (int i = 0; i < list.size(); i++)
-                if ((separator = list.get(i).get()) == null)
+                if (((separator = list.get(i).get()) == null) || (separator.getParent() == null))
                     list.remove(i--);
                 else
                     if (hashPopups.contains((JPopupMenu)(separator.getParent())) == false)
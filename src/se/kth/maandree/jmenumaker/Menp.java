@@ -18,15 +18,20 @@
  */
 package se.kth.maandree.jmenumaker;
 
-import javax.swing.*;
 import java.awt.*;
 import java.util.*;
 import java.io.*;
 import java.lang.ref.*;
+import java.lang.invoke.*;
 
 
 /**
  * Menp (MENu Processing) interpreter
+ * <p>
+ * The code is parsed once, when loaded, into a tree of {@link MenpNode}s
+ * per method, the trees are optimised, and invocations evaluate the trees.
+ * Optionally the methods are also compiled into method handles, that the
+ * JIT can inline; methods that cannot be compiled are interpreted.
  *
  * @version  1.0
  * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
@@ -39,648 +44,688 @@ public class Menp
      * @param  file  The file with the Memp code
      *
      * @throws  FileNotFoundException  If the file does not exist or cannot be accessed
-     * @throws  IOException            On IO exception
+     * @throws  IOException            On IO exception, or if the code is malformed
      */
     public Menp(final String file) throws FileNotFoundException, IOException
     {
+        this(file, false);
+    }
+    
+    /**
+     * Constructor
+     *
+     * @param  file     The file with the Memp code
+     * @param  compile  Whether to compile the methods rather than interpret them
+     *
+     * @throws  FileNotFoundException  If the file does not exist or cannot be accessed
+     * @throws  IOException            On IO exception, or if the code is malformed
+     */
+    public Menp(final String file, final boolean compile) throws FileNotFoundException, IOException
+    {
+        final StringBuilder code = new StringBuilder();
+        preprocess(read(file), code);
+        
+        final Parser parser = new Parser(code.toString());
+        final ArrayList<MenpNode> bodies = new ArrayList<MenpNode>();
+        
+        for (int i = 0, n = parser.code.length(); i < n;)
         {
-            int size;
-            final InputStream is = new FileInputStream(file);
-            final byte[] bs = new byte[size = is.available()];
-            int ptr = 0;
-            int z = size;
+            final int colon = parser.code.indexOf(':', i);
+            if ((colon < 0) || (colon + 1 >= n) || (parser.code.charAt(colon + 1) != '('))
+                throw new IOException("Malformed Menp code, expecting a method: " + parser.code.substring(i));
             
-            while (z > 0)
+            final int end = parser.close(colon + 1);
+            this.methods.put(parser.code.substring(i, colon), Integer.valueOf(bodies.size()));
+            bodies.add(parser.parseInstruction(colon + 2, end));
+            i = end + 1;
+        }
+        
+        this.bodies = bodies.toArray(new MenpNode[bodies.size()]);
+        for (final MenpNode.Call call : parser.calls)
+            call.entry = resolve(call.method);
+        
+        final String[] names = new String[this.bodies.length];
+        for (final Map.Entry<String, Integer> method : this.methods.entrySet())
+            names[method.getValue().intValue()] = method.getKey();
+        
+        final MenpOptimizer optimizer = new MenpOptimizer(this.bodies, names);
+        optimizer.optimize();
+        if (JMenuMaker.errOutput && JMenuMaker.diagnostics.isEnabled(MenuDiagnostics.Level.TRACE))
+            for (final String change : optimizer.changes)
+                JMenuMaker.diagnostics.report(MenuDiagnostics.Level.TRACE, file, 0, MenuDiagnostics.MENP_OPTIMIZED,
+                                              "Menp code in " + file + " optimised: " + change);
+        
+        this.frames = new int[this.bodies.length];
+        this.globals = new Object[allocate()];
+        
+        this.compiled = compile ? new MethodHandle[this.bodies.length] : null;
+        if (compile)
+            for (final Map.Entry<String, Integer> method : this.methods.entrySet())
             {
-                int m = is.read(bs, ptr, z);
-                z -= m;
-                ptr += m;
+                final int entry = method.getValue().intValue();
+                try
+                {
+                    this.compiled[entry] = MenpCompiler.compile(this.bodies[entry]);
+                }
+                catch (final RuntimeException err)
+                {
+                    report(file, method.getKey(), err);
+                }
+                catch (final LinkageError err)
+                {
+                    report(file, method.getKey(), err);
+                }
             }
+    }
+    
+    
+    
+    /**
+     * Parsing state for Menp code
+     */
+    private static final class Parser
+    {
+        /**
+         * Constructor
+         *
+         * @param  code  The preprocessed code
+         *
+         * @throws  IOException  If the brackets are unbalanced
+         */
+        Parser(final String code) throws IOException
+        {
+            this.code = code;
+            this.wormholes = new int[code.length()];
             
-            is.close();
-            
-            this.code = (new String(bs, "UTF-8")).replace('\f', '\n').replace('\r', '\n').replace('\t', ' ');
+            final int[] stack = new int[code.length()];
+            int depth = 0;
+            boolean str = false;
+            for (int i = 0, n = code.length(); i < n; i++)
+            {
+                final char c = code.charAt(i);
+                if (str)
+                {
+                    if (c == '"')
+                        str = false;
+                }
+                else if (c == '"')
+                    str = true;
+                else if (c == '(')
+                    stack[depth++] = i;
+                else if (c == ')')
+                {
+                    if (depth == 0)
+                        throw new IOException("Malformed Menp code, unbalanced brackets");
+                    this.wormholes[stack[--depth]] = i;
+                }
+            }
+            if (depth != 0)
+                throw new IOException("Malformed Menp code, unbalanced brackets");
         }
         
-        final ArrayList<Integer> stack = new ArrayList<Integer>();
+        /**
+         * The preprocessed code
+         */
+        final String code;
         
-        boolean str = true;
-        for (int i = 0, n = this.code.length(); i < n;)
+        /**
+         * Jump table from opening brackets ['('] to closing brackets [')'], by position in the code
+         */
+        final int[] wormholes;
+        
+        /**
+         * The method calls, to resolve when all methods have been parsed
+         */
+        final ArrayList<MenpNode.Call> calls = new ArrayList<MenpNode.Call>();
+        
+        
+        
+        /**
+         * Gets the closing bracket of an opening bracket
+         *
+         * @param   open  The position of the opening bracket
+         * @return        The position of the closing bracket
+         */
+        int close(final int open)
         {
-            final char c = this.code.charAt(i++);
-            if (str)
+            return this.wormholes[open];
+        }
+        
+        /**
+         * Parses the inside of an instruction bracket
+         *
+         * @param   start  The start of the instruction, inclusive
+         * @param   end    The end of the instruction, exclusive
+         * @return         The instruction
+         *
+         * @throws  IOException  If the code is malformed
+         */
+        MenpNode parseInstruction(final int start, final int end) throws IOException
+        {
+            final ArrayList<MenpNode> statements = new ArrayList<MenpNode>();
+            int i = start;
+            while ((i < end) && (this.code.charAt(i) == '('))
             {
-                if (c == '"')
-                    str = false;
+                final int close = close(i);
+                statements.add(parseInstruction(i + 1, close));
+                i = close + 1;
             }
-            else if (c == '(')
-                stack.add(0, new Integer(i));
-            else if (c == ')')
-                this.wormholes.put(stack.remove(0), Integer.valueOf(i));
-            else if (c == '@')
+            
+            final MenpNode last = i < end ? parseOperation(i, end) : null;
+            if (statements.isEmpty() && (last != null))
+                return last;
+            return new MenpNode.Block(statements.toArray(new MenpNode[statements.size()]), last);
+        }
+        
+        /**
+         * Parses a non-bracketed instruction
+         *
+         * @param   start  The start of the instruction, at its instruction code
+         * @param   end    The end of the instruction, exclusive
+         * @return         The instruction
+         *
+         * @throws  IOException  If the code is malformed
+         */
+        private MenpNode parseOperation(final int start, final int end) throws IOException
+        {
+            final char op = this.code.charAt(start);
+            int i = start + 1;
+            int questions = 1;
+            if (op == '?')
+                while ((i < end) && (questions < 3) && (this.code.charAt(i) == '?'))
+                {
+                    i++;
+                    questions++;
+                }
+            
+            final ArrayList<String> tokens = new ArrayList<String>();
+            final ArrayList<Integer> starts = new ArrayList<Integer>();
+            split(i, end, tokens, starts);
+            
+            switch (op)
             {
-                final int j = this.code.indexOf("\n", 0);
+                case '>':
+                {
+                    if (tokens.isEmpty())
+                        throw new IOException("Malformed Menp code, call without method: " + this.code.substring(start, end));
+                    final MenpNode.Call call = new MenpNode.Call(tokens.get(0), parseItems(tokens, starts, 1));
+                    this.calls.add(call);
+                    return call;
+                }
                 
-                int size;
-                final InputStream is = new FileInputStream(this.code.substring(i, j));
-                final byte[] bs = new byte[size = is.available()];
-                int ptr = 0;
-                int z = size;
-                n += size;
+                case '<':  return new MenpNode.Return(parseItems(tokens, starts, 0));
+                case '.':  return new MenpNode.Expand(parseItems(tokens, starts, 0));
+                case '*':  return new MenpNode.Not(parseItems(tokens, starts, 0));
+                case '|':  return new MenpNode.Union(parseItems(tokens, starts, 0));
+                case '&':  return new MenpNode.Intersection(parseItems(tokens, starts, 0));
+                case '^':  return new MenpNode.Parity(parseItems(tokens, starts, 0));
                 
-                while (z > 0)
+                case '~':
                 {
-                    int m = is.read(bs, ptr, z);
-                    z -= m;
-                    ptr += m;
+                    final ArrayList<MenpNode.Variable> variables = new ArrayList<MenpNode.Variable>();
+                    for (final String token : tokens)
+                        if (token.startsWith("%"))
+                            variables.add(new MenpNode.Variable(token.substring(1)));
+                    return new MenpNode.Undeclare(variables.toArray(new MenpNode.Variable[variables.size()]));
                 }
                 
-                final String iCode = new String(bs, "UTF-8").replace("\f", "\n").replace("\r\n", "\n").replace("\r", "\n").replace("\t", " ");
+                case '=':
+                {
+                    if (tokens.isEmpty())
+                        throw new IOException("Malformed Menp code, comparison without comparands: " + this.code.substring(start, end));
+                    return new MenpNode.Same(parseItems(tokens, starts, 0));
+                }
                 
-                final StringBuilder sb = new StringBuilder();
-                sb.append(this.code.substring(0, i));
-                sb.append(iCode);
-                sb.append(this.code.substring(j));
-                this.code = sb.toString();
-            }
-            else if (c == '#')
-            {
-                final int j = this.code.indexOf("\n", 0);
-                this.code = this.code.substring(0, i) + this.code.substring(j);
+                case ',':
+                {
+                    if (tokens.isEmpty())
+                        throw new IOException("Malformed Menp code, if without condition: " + this.code.substring(start, end));
+                    final MenpNode[] items = parseItems(tokens, starts, 0);
+                    return new MenpNode.If(items[0], items.length > 1 ? items[1] : null, items.length > 2 ? items[2] : null);
+                }
+                
+                case ':':
+                {
+                    if (tokens.size() != 2)
+                        throw new IOException("Malformed Menp code, assignment without variable and value: " + this.code.substring(start, end));
+                    return new MenpNode.Assign(new MenpNode.Variable(tokens.get(0)), parseItem(tokens.get(1), starts.get(1).intValue()));
+                }
+                
+                case '!':
+                {
+                    if (tokens.isEmpty())
+                        throw new IOException("Malformed Menp code, set without setting: " + this.code.substring(start, end));
+                    final String setting = tokens.get(0);
+                    if (setting.startsWith("accelerator="))
+                        return new MenpNode.Mutate(MenpNode.UNKNOWN, JMenuMaker.parseKeyStroke(setting.substring("accelerator=".length()), JMenuMaker.errOutput),
+                                                   parseItems(tokens, starts, 1));
+                    return new MenpNode.Mutate(getSetting(setting), null, parseItems(tokens, starts, 1));
+                }
+                
+                case '?':
+                {
+                    if (tokens.isEmpty())
+                        throw new IOException("Malformed Menp code, query without setting: " + this.code.substring(start, end));
+                    return new MenpNode.Query(questions, getSetting(tokens.get(0)), parseItems(tokens, starts, 1));
+                }
+                
+                default:
+                    throw new IOException("Malformed Menp code, unknown instruction: " + this.code.substring(start, end));
             }
-            else if (c == '"')
-                str = true;
         }
         
-        final char[] codeBuf = new char[this.code.length()];
-        int ptr = 0;
-        str = false;
-        for (int i = 0, len = this.code.length(); i < len; i++)
+        /**
+         * Splits the input of an instruction into its semicolon delimited items
+         *
+         * @param  start   The start of the input, inclusive
+         * @param  end     The end of the input, exclusive
+         * @param  tokens  List to fill with the items
+         * @param  starts  List to fill with the start of each item
+         */
+        private void split(final int start, final int end, final ArrayList<String> tokens, final ArrayList<Integer> starts)
         {
-            final char c = this.code.charAt(i);
-            if (str)
+            if (start == end)
+                return;
+            
+            int first = start;
+            boolean str = false;
+            for (int i = start; i < end; i++)
             {
-                if ((codeBuf[ptr++] = c) == '"')
-                    str = false;
+                final char c = this.code.charAt(i);
+                if (str)
+                {
+                    if (c == '"')
+                        str = false;
+                }
+                else if (c == '"')
+                    str = true;
+                else if (c == '(')
+                    i = close(i);
+                else if (c == ';')
+                {
+                    tokens.add(this.code.substring(first, i));
+                    starts.add(Integer.valueOf(first));
+                    first = i + 1;
+                }
             }
-            else if ((c != ' ') && (c != '\n'))
+            if (first < end)
             {
-                codeBuf[ptr++] = c;
-                str = c == '"';
+                tokens.add(this.code.substring(first, end));
+                starts.add(Integer.valueOf(first));
             }
         }
-        this.code = new String(codeBuf, 0, ptr);
         
-        char c;
-        StringBuilder buf = new StringBuilder();
-        for (int i = 0, n = this.code.length(); i < n; i++)
-            if ((c = this.code.charAt(i)) == '(')
-                i = this.wormholes.get(new Integer(i));
-            else if (c == ':')
-            {
-                methods.put(buf.toString(), new Integer(i + 1));
-                buf = new StringBuilder();
-            }
-            else if (c != ' ')
-                buf.append(c);
+        /**
+         * Parses items
+         *
+         * @param   tokens  The items
+         * @param   starts  The start of each item
+         * @param   offset  The index of the first item to parse
+         * @return          The parsed items
+         *
+         * @throws  IOException  If the code is malformed
+         */
+        private MenpNode[] parseItems(final ArrayList<String> tokens, final ArrayList<Integer> starts, final int offset) throws IOException
+        {
+            final MenpNode[] rc = new MenpNode[tokens.size() - offset];
+            for (int i = 0; i < rc.length; i++)
+                rc[i] = parseItem(tokens.get(i + offset), starts.get(i + offset).intValue());
+            return rc;
+        }
+        
+        /**
+         * Parses an item
+         *
+         * @param   item   The item
+         * @param   start  The position of the item in the code
+         * @return         The parsed item
+         *
+         * @throws  IOException  If the code is malformed
+         */
+        private MenpNode parseItem(final String item, final int start) throws IOException
+        {
+            final int end = start + item.length();
+            if (item.startsWith("("))
+                return close(start) == end - 1 ? parseInstruction(start + 1, end - 1) : parseInstruction(start, end);
+            
+            if (item.equals("$$"))
+                return new MenpNode.Parameters();
+            if (item.startsWith("$"))
+                try
+                {
+                    return new MenpNode.Parameter(Integer.parseInt(item.substring(1)));
+                }
+                catch (final NumberFormatException err)
+                {
+                    throw new IOException("Malformed Menp code, bad parameter: " + item);
+                }
+            if (item.startsWith("%"))
+                return new MenpNode.Variable(item.substring(1));
+            
+            if ((item.length() >= 2) && item.startsWith("\"") && item.endsWith("\""))
+                return new MenpNode.Literal(item.substring(1, item.length() - 1).replace("\"\"", "\"").replace("\\\\", "\\"));
+            return new MenpNode.Literal((item.equals("true") || item.equals("1")) ? Boolean.TRUE : Boolean.FALSE);
+        }
     }
     
     
     
     /**
-     * The Menp code
+     * Call frame of methods without local variables
+     */
+    private static final Object[] NO_LOCALS = new Object[0];
+    
+    
+    
+    /**
+     * Method mapping, from names to indices in {@link #bodies}
      */
-    private String code;
+    private final HashMap<String, Integer> methods = new HashMap<String, Integer>();
     
     /**
-     * Map from opening brackets ['('] to closing brackets [')']
+     * The methods' instructions
      */
-    private final HashMap<Integer, Integer> wormholes = new HashMap<Integer, Integer>();
+    private final MenpNode[] bodies;
     
     /**
-     * Method mapping
+     * The compiled methods, by index in {@link #bodies}, {@code null} elements for
+     * interpreted methods, {@code null} if not compiling
      */
-    private final HashMap<String, Integer> methods = new HashMap<String, Integer>();
+    private final MethodHandle[] compiled;
     
     /**
-     * Variables
+     * The number of local variables of each method, by index in {@link #bodies}
      */
-    private final HashMap<String, Object> variables = new HashMap<String, Object>();
+    private final int[] frames;
+    
+    /**
+     * The global variables, by slot
+     */
+    final Object[] globals;
     
     
     
     /**
-     * Invokes a method in the Menp code
+     * Reads a file of Menp code
      *
-     * @param   method      The method to invoke
-     * @param   menuItems   The menu items
-     * @param   parameters  Parameters
-     * @return              The returned value
+     * @param   file  The file
+     * @return        The code, with new lines and tab spaces normalised
+     *
+     * @throws  FileNotFoundException  If the file does not exist or cannot be accessed
+     * @throws  IOException            On IO exception
      */
-    public Object[] invoke(final String method, final HashMap<String, WeakReference<Component>> menuItems, final String... parameters)
+    private static String read(final String file) throws FileNotFoundException, IOException
     {
-        int i = this.methods.get(method).intValue() + 1;
-        int end = this.wormholes.get(new Integer(i)).intValue();
+        int size;
+        final InputStream is = new FileInputStream(file);
+        final byte[] bs = new byte[size = is.available()];
+        int ptr = 0;
+        int z = size;
         
-        final Object[] ret = exec(this.code.substring(i, end), menuItems, parameters);
-        if ((ret != null) && (ret.length > 0) && (ret[0] == null))
+        while (z > 0)
         {
-            final Object[] rc = new Object[ret.length - 1];
-            System.arraycopy(rc, 0, ret, 1, rc.length);
-            return rc;
+            int m = is.read(bs, ptr, z);
+            z -= m;
+            ptr += m;
         }
-        return null;
+        
+        is.close();
+        
+        return (new String(bs, "UTF-8")).replace('\f', '\n').replace('\r', '\n').replace('\t', ' ');
     }
     
     /**
-     * Parses and executes a segment of a Menp code
+     * Removes comments and whitespace outside strings, and includes files
      *
-     * @param   code        The code to execute
-     * @param   menuItems   The menu items
-     * @param   parameters  Parameters
-     * @return              The returned value
+     * @param  code  The code
+     * @param  out   Output buffer for the preprocessed code
+     *
+     * @throws  FileNotFoundException  If an included file does not exist or cannot be accessed
+     * @throws  IOException            On IO exception
      */
-    private Object[] exec(final String code, final HashMap<String, WeakReference<Component>> menuItems, final String... parameters)
+    private static void preprocess(final String code, final StringBuilder out) throws FileNotFoundException, IOException
     {
-        int i = 0;
-        while (this.code.charAt(i) == '(')
-        {
-            final int j = this.wormholes.get(new Integer(i)).intValue();
-            Object[] ret = exec(code.substring(i + 1, j), menuItems, parameters);
-            if ((ret != null) && (ret.length > 0) && (ret[0] == null))
-                return ret;
-            i = j + 1;
-        }
-
-        if (i >= this.code.length())
-            return null;
-        
-        final ArrayList<String> list;
-        StringBuilder buf = new StringBuilder();
-        switch (this.code.charAt(i++))
+        boolean str = false;
+        for (int i = 0, n = code.length(); i < n; i++)
         {
-            case '>': //call
-            {
-                list = list(this.code.substring(i));
-                return invoke(list.remove(0), menuItems, (String[])(list.toArray()));
-            }
-            
-            case '<': //return
-            {
-                list = list(this.code.substring(i));
-                final Object[] rc = new Object[list.size() + 1];
-                int j = 0;
-                rc[j++] = null;
-                for (final String item : list)
-                    rc[j++] = parseItem(item, menuItems, parameters);
-                return rc;
-            }
-            
-            case '~': //undeclare
-            {
-                list = list(this.code.substring(i));
-                for (final String item : list)
-                    if (item.startsWith("%"))
-                        variables.remove(item.substring(1));
-                break;
-            }
-            
-            case '.': //expand
-            {
-                list = list(this.code.substring(i));
-                final ArrayList<Object> items = new ArrayList<Object>();
-                for (final String sitem : list)
-                {
-                    final Object item = parseItem(sitem, menuItems, parameters);
-                    if (item instanceof ArrayList)
-                        for (final Object iitem : (ArrayList)item)
-                            items.add(iitem);
-                    else
-                        items.add(item);
-                }
-                return items.toArray();
-            }
-            
-            case '*': //not
-            {
-                list = list(this.code.substring(i));
-                final Object[] rc = new Object[list.size()];
-                int j = 0;
-                for (final String sitem : list)
-                {
-                    final Object item = parseItem(sitem, menuItems, parameters);
-                    if (item instanceof Boolean)
-                        rc[j++] = Boolean.valueOf(((Boolean)item).booleanValue() == false);
-                    else
-                        rc[j++] = item;
-                }
-                return rc;
-            }
-            
-            case '=': //same
-            {
-                list = list(this.code.substring(i));
-                final ArrayList<Object> items = new ArrayList<Object>();
-                for (final String sitem : list)
-                    items.add(parseItem(sitem, menuItems, parameters));
-                final Object left = items.remove(0);
-                if (left instanceof ArrayList)
-                {
-                    final Object[] lefts = ((ArrayList<?>)left).toArray();
-                    if (lefts.length != items.size())
-                        return new Object[] { Boolean.FALSE };
-                    final HashSet<Object> set = new HashSet<Object>();
-                    for (final Object item : items)
-                        if (set.contains(item))
-                            set.remove(item);
-                        else
-                            return new Object[] { Boolean.FALSE };
-                    return new Object[] { Boolean.TRUE };
-                }
-                return new Object[] { Boolean.valueOf((items.size() == 1) && (items.get(0).equals(left))) };
-            }
-            
-            case '|': //or / union
-            {
-                list = list(this.code.substring(i));
-                Boolean bool = null;
-                final HashSet<Object> set = new HashSet<Object>();
-                final ArrayList<Object> items = new ArrayList<Object>();
-                for (final String sitem : list)
-                {
-                    final Object item = items.add(parseItem(sitem, menuItems, parameters));
-                    if (item instanceof Boolean)
-                        bool = bool == null ? (Boolean)item : Boolean.valueOf(bool.booleanValue() | ((Boolean)item).booleanValue());
-                    else if (item instanceof ArrayList)
-                    {
-                        for (final Object iitem : (ArrayList)item)
-                            if (set.contains(iitem) == false)
-                            {
-                                set.add(iitem);
-                                items.add(iitem);
-                            }
-                    }
-                    else
-                        if (set.contains(item) == false)
-                        {
-                            set.add(item);
-                            items.add(item);
-                        }
-                }
-                if (bool != null)
-                    items.add(bool);
-                return items.toArray();
-            }
-            
-            case '&': //and / intersection
-            {
-                list = list(this.code.substring(i));
-                Boolean bool = null, boolic = false, first = true;
-                HashSet<Object> set = new HashSet<Object>();
-                ArrayList<Object> items = new ArrayList<Object>();
-                for (final String sitem : list)
-                {
-                    final Object item = items.add(parseItem(sitem, menuItems, parameters));
-                    if (first)
-                    {
-                        if (item instanceof Boolean)
-                            bool = bool == null ? (Boolean)item : Boolean.valueOf(bool.booleanValue() & ((Boolean)item).booleanValue());
-                        else if (item instanceof ArrayList)
-                        {
-                            for (final Object iitem : (ArrayList)item)
-                                if (set.contains(iitem) == false)
-                                {
-                                    set.add(iitem);
-                                    items.add(iitem);
-                                }
-                        }
-                        else
-                        {
-                            set.add(item);
-                            items.add(item);
-                        }
-                        first = false;
-                    }
-                    else
-                        if (item instanceof Boolean)
-                            bool = bool == null ? (Boolean)item : Boolean.valueOf(bool.booleanValue() & ((Boolean)item).booleanValue());
-                        else if (item instanceof ArrayList)
-                        {
-                            final ArrayList<Object> litems = items;
-                            final HashSet<Object> rset = new HashSet<Object>();
-                            
-                            set = new HashSet<Object>();
-                            items = new ArrayList<Object>();
-                            
-                            for (final Object iitem : (ArrayList)item)
-                                if (rset.contains(iitem) == false)
-                                    rset.add(iitem);
-                            
-                            for (final Object litem : litems)
-                                if (rset.contains(litem))
-                                {
-                                    set.add(litem);
-                                    items.add(litem);
-                                }
-                        }
-                        else
-                            if (set.contains(item) == false)
-                                boolic = true;
-                            else
-                            {
-                                set = new HashSet<Object>();
-                                items = new ArrayList<Object>();
-                                set.add(item);
-                                items.add(item);
-                            }
-                }
-                if (boolic)
-                    items = new ArrayList<Object>();
-                if (bool != null)
-                    items.add(bool);
-                return items.toArray();
-            }
-            
-            case '^': //parity
+            final char c = code.charAt(i);
+            if (str)
             {
-                list = list(this.code.substring(i));
-                Boolean bool = null;
-                final HashSet<Object> set = new HashSet<Object>();
-                final HashSet<Object> parity = new HashSet<Object>();
-                final ArrayList<Object> items = new ArrayList<Object>();
-                for (final String sitem : list)
-                {
-                    final Object item = items.add(parseItem(sitem, menuItems, parameters));
-                    if (item instanceof Boolean)
-                        bool = bool == null ? (Boolean)item : Boolean.valueOf(bool.booleanValue() ^ ((Boolean)item).booleanValue());
-                    else if (item instanceof ArrayList)
-                        for (final Object iitem : (ArrayList)item)
-                        {
-                            if (set.contains(iitem) == false)
-                                items.add(iitem);
-                            set.add(iitem);
-                            if (parity.contains(iitem))
-                                parity.remove(iitem);
-                            else
-                                parity.add(iitem);
-                        }
-                    else
-                    {
-                        if (set.contains(item) == false)
-                            items.add(item);
-                        set.add(item);
-                        if (parity.contains(item))
-                            parity.remove(item);
-                        else
-                            parity.add(item);
-                    }
-                }
-                final ArrayList<Object> pitems = new ArrayList<Object>();
-                for (final Object item : items)
-                    if (parity.contains(item))
-                        pitems.add(item);
-                if (bool != null)
-                    pitems.add(bool);
-                return pitems.toArray();
+                out.append(c);
+                if (c == '"')
+                    str = false;
             }
-            
-            case ',': //if
+            else if (c == '"')
             {
-                list = list(this.code.substring(i));
-                boolean cond = false;
-                Object item;
-                for (final String sitem : list)
-                    if ((item = parseItem(sitem, menuItems, parameters)) instanceof Boolean)
-                    {
-                        cond = ((Boolean)item).booleanValue();
-                        break;
-                    } 
-                return new Object[] {parseItem(list.get(cond ? 1 : 2), menuItems, parameters)};
+                out.append(c);
+                str = true;
             }
-            
-            case ':': //assign
+            else if ((c == '@') || (c == '#'))
             {
-                final String rc;
-                list = list(this.code.substring(i));
-                variables.put(list.get(0), parseItem(rc = list.get(1), menuItems, parameters));
-                return new Object[] { rc };
+                int j = code.indexOf('\n', i);
+                if (j < 0)
+                    j = n;
+                if (c == '@')
+                    preprocess(read(code.substring(i + 1, j)), out);
+                i = j;
             }
-            
-            case '!': //set
+            else if ((c != ' ') && (c != '\n'))
+                out.append(c);
+        }
+    }
+    
+    /**
+     * Resolves the variables to slots, and fills in {@link #frames}.
+     * <p>
+     * A variable is local to a method's call frame if no other method uses it
+     * and the method always assigns it before reading it. Other variables keep
+     * their values between invocations, and are global.
+     *
+     * @return  The number of global variables
+     */
+    private int allocate()
+    {
+        final HashMap<String, Integer> owners = new HashMap<String, Integer>();
+        final ArrayList<ArrayList<MenpNode.Variable>> uses = new ArrayList<ArrayList<MenpNode.Variable>>();
+        for (int method = 0; method < this.bodies.length; method++)
+        {
+            final ArrayList<MenpNode.Variable> variables = new ArrayList<MenpNode.Variable>();
+            collect(this.bodies[method], variables);
+            uses.add(variables);
+            for (final MenpNode.Variable variable : variables)
             {
-                list = list(this.code.substring(i));
-                Object item;
-                if (list.get(0).startsWith("accelerator="))
-                {
-                    final String setting = list.remove(0);
-                    for (final String sitem : list)
-                        if ((item = parseItem(sitem, menuItems, parameters)) instanceof String)
-                        {
-                            final WeakReference<Component> ref = menuItems.get((String)item);
-                            if ((ref != null) && (ref.get() != null) && (ref.get() instanceof JMenuItem))
-                                ((JMenuItem)(ref.get())).setAccelerator(JMenuMaker.parseKeyStroke(setting.substring("accelerator=".length())));
-                        }
-                }
-                else
-                {
-                    final int setting = getSetting(list.remove(0));
-                    for (final String sitem : list)
-                        if ((item = parseItem(sitem, menuItems, parameters)) instanceof String)
-                        {
-                            final WeakReference<Component> ref = menuItems.get((String)item);
-                            if ((ref != null) && (ref.get() != null))
-                                applySetting(ref.get(), setting);
-                        }
-                }
-                break;
+                final Integer owner = owners.get(variable.name);
+                if (owner == null)
+                    owners.put(variable.name, Integer.valueOf(method));
+                else if (owner.intValue() != method)
+                    owners.put(variable.name, Integer.valueOf(-1));
             }
-            
-            case '?': //query
+        }
+        for (final MenpNode body : this.bodies)
+            analyse(body, new HashSet<String>(), owners);
+        
+        final HashMap<String, Integer> globalSlots = new HashMap<String, Integer>();
+        for (int method = 0; method < this.bodies.length; method++)
+        {
+            final HashMap<String, Integer> localSlots = new HashMap<String, Integer>();
+            for (final MenpNode.Variable variable : uses.get(method))
             {
-                Object item;
-                if (this.code.charAt(i) == '?')
-                {
-                    if (this.code.charAt(++i) == '?') //query parity
-                    {
-                        i++;
-                        int p = 0;
-                        list = list(this.code.substring(i));
-                        final int setting = getSetting(list.remove(0));
-                        for (final String sitem : list)
-                            if ((item = parseItem(sitem, menuItems, parameters)) instanceof String)
-                            {
-                                final WeakReference<Component> ref = menuItems.get((String)item);
-                                if ((ref != null) && (ref.get() != null))
-                                    if (querySetting(ref.get(), setting) == false)
-                                        p++;
-                            }
-                        return new Object[] { Boolean.valueOf((p & 1) == 1) };
-                    }
-                    //query all
-                    {
-                        list = list(this.code.substring(i));
-                        final int setting = getSetting(list.remove(0));
-                        for (final String sitem : list)
-                            if ((item = parseItem(sitem, menuItems, parameters)) instanceof String)
-                            {
-                                final WeakReference<Component> ref = menuItems.get((String)item);
-                                if ((ref != null) && (ref.get() != null))
-                                    if (querySetting(ref.get(), setting) == false)
-                                        return new Object[] { Boolean.FALSE };
-                            }
-                        return new Object[] { Boolean.TRUE };
-                    }
-                }
-                //query any
-                {
-                    list = list(this.code.substring(i));
-                    final int setting = getSetting(list.remove(0));
-                    for (final String sitem : list)
-                        if ((item = parseItem(sitem, menuItems, parameters)) instanceof String)
-                        {
-                            final WeakReference<Component> ref = menuItems.get((String)item);
-                            if ((ref != null) && (ref.get() != null))
-                                if (querySetting(ref.get(), setting))
-                                    return new Object[] { Boolean.TRUE };
-                        }
-                    return new Object[] { Boolean.FALSE };
-                }
+                variable.local = owners.get(variable.name).intValue() == method;
+                final HashMap<String, Integer> slots = variable.local ? localSlots : globalSlots;
+                Integer slot = slots.get(variable.name);
+                if (slot == null)
+                    slots.put(variable.name, slot = Integer.valueOf(slots.size()));
+                variable.slot = slot.intValue();
             }
+            this.frames[method] = localSlots.size();
         }
-        
-        return null;
+        return globalSlots.size();
     }
     
     /**
-     * Converts a setting string to an integer
+     * Collects the variables used in a node
      *
-     * @param   setting  The setting as a string
-     * @return           The setting as an integer
+     * @param  node       The node
+     * @param  variables  List to fill with the variables, read, assigned and undeclared alike
      */
-    private int getSetting(final String setting)
+    private static void collect(final MenpNode node, final ArrayList<MenpNode.Variable> variables)
     {
-        if (setting.equals( "visible"))        return -1;
-        if (setting.equals( "visible=true"))   return -1;
-        if (setting.equals( "visible=false"))  return  1;
-        if (setting.equals(  "hidden"))        return  1;
-        if (setting.equals(  "hidden=true"))   return  1;
-        if (setting.equals(  "hidden=false"))  return -1;
-        if (setting.equals( "enabled"))        return -2;
-        if (setting.equals( "enabled=true"))   return -2;
-        if (setting.equals( "enabled=false"))  return  2;
-        if (setting.equals("disabled"))        return  2;
-        if (setting.equals("disabled=true"))   return  2;
-        if (setting.equals("disabled=false"))  return -2;
-        if (setting.equals("selected"))        return  3;
-        if (setting.equals("selected=true"))   return  3;
-        if (setting.equals("selected=false"))  return -3;
-        return 0;
+        if (node instanceof MenpNode.Variable)
+            variables.add((MenpNode.Variable)node);
+        else if (node instanceof MenpNode.Assign)
+            variables.add(((MenpNode.Assign)node).variable);
+        else if (node instanceof MenpNode.Undeclare)
+            variables.addAll(Arrays.asList(((MenpNode.Undeclare)node).variables));
+        
+        for (final MenpNode child : node.children())
+            collect(child, variables);
     }
     
     /**
-     * Applys a setting to a component
+     * Finds the variables that may be read before they are assigned, and makes them global
      *
-     * @param  component  The component
-     * @param  setting    The setting
+     * @param  node      The node
+     * @param  assigned  The variables that are certainly assigned before the node is evaluated,
+     *                   updated to those certainly assigned after the node is evaluated
+     * @param  owners    Map from variables to the method they are local to, updated with -1 for variables that must be global
      */
-    private void applySetting(final Component component, final int setting)
+    private static void analyse(final MenpNode node, final HashSet<String> assigned, final HashMap<String, Integer> owners)
     {
-        switch (setting)
+        if (node instanceof MenpNode.Variable)
         {
-            case  1:  component.setVisible(false);  break;
-            case -1:  component.setVisible(true);   break;
-            case  2:  component.setEnabled(false);  break;
-            case -2:  component.setEnabled(true);   break;
+            if (assigned.contains(((MenpNode.Variable)node).name) == false)
+                owners.put(((MenpNode.Variable)node).name, Integer.valueOf(-1));
+        }
+        else if (node instanceof MenpNode.If)
+        {
+            final MenpNode.If branch = (MenpNode.If)node;
+            analyse(branch.condition, assigned, owners);
+            final HashSet<String> then = new HashSet<String>(assigned);
+            final HashSet<String> otherwise = new HashSet<String>(assigned);
+            if (branch.then != null)
+                analyse(branch.then, then, owners);
+            if (branch.otherwise != null)
+                analyse(branch.otherwise, otherwise, owners);
+            then.retainAll(otherwise);
+            assigned.addAll(then);
+        }
+        else
+        {
+            for (final MenpNode child : node.children())
+                analyse(child, assigned, owners);
+            if (node instanceof MenpNode.Assign)
+                assigned.add(((MenpNode.Assign)node).variable.name);
+            else if (node instanceof MenpNode.Undeclare)
+                for (final MenpNode.Variable variable : ((MenpNode.Undeclare)node).variables)
+                    assigned.add(variable.name);
         }
     }
     
     /**
-     * Querys a setting from a component
+     * Reports that a method could not be compiled
      *
-     * @param  component  The component
-     * @param  setting    The setting
+     * @param  file    The file with the Memp code
+     * @param  method  The method
+     * @param  err     The reason
      */
-    private boolean querySetting(final Component component, final int setting)
+    private static void report(final String file, final String method, final Throwable err)
     {
-        switch (setting)
-        {
-            case  1:  return !component.isVisible();
-            case -1:  return  component.isVisible();
-            case  2:  return !component.isEnabled();
-            case -2:  return  component.isEnabled();
-            case  3:  return component instanceof AbstractButton && !((AbstractButton)component).isSelected();
-            case -3:  return component instanceof AbstractButton &&  ((AbstractButton)component).isSelected();
-        }
-        return false;
+        if (JMenuMaker.errOutput && JMenuMaker.diagnostics.isEnabled(MenuDiagnostics.Level.TRACE))
+            JMenuMaker.diagnostics.report(MenuDiagnostics.Level.TRACE, file, 0, MenuDiagnostics.MENP_INTERPRETED,
+                                          "Menp method " + method + " in " + file + " is interpreted, it could not be compiled: " + err);
     }
     
     /**
-     * Parses an item
+     * Converts a setting string to an integer
+     *
+     * @param   setting  The setting as a string
+     * @return           The setting as an integer
+     */
+    private static int getSetting(final String setting)
+    {
+        if (setting.equals( "visible"))        return MenpNode.VISIBLE;
+        if (setting.equals( "visible=true"))   return MenpNode.VISIBLE;
+        if (setting.equals( "visible=false"))  return MenpNode.HIDDEN;
+        if (setting.equals(  "hidden"))        return MenpNode.HIDDEN;
+        if (setting.equals(  "hidden=true"))   return MenpNode.HIDDEN;
+        if (setting.equals(  "hidden=false"))  return MenpNode.VISIBLE;
+        if (setting.equals( "enabled"))        return MenpNode.ENABLED;
+        if (setting.equals( "enabled=true"))   return MenpNode.ENABLED;
+        if (setting.equals( "enabled=false"))  return MenpNode.DISABLED;
+        if (setting.equals("disabled"))        return MenpNode.DISABLED;
+        if (setting.equals("disabled=true"))   return MenpNode.DISABLED;
+        if (setting.equals("disabled=false"))  return MenpNode.ENABLED;
+        if (setting.equals("selected"))        return MenpNode.SELECTED;
+        if (setting.equals("selected=true"))   return MenpNode.SELECTED;
+        if (setting.equals("selected=false"))  return MenpNode.UNSELECTED;
+        return MenpNode.UNKNOWN;
+    }
+    
+    
+    
+    /**
+     * Invokes a method in the Menp code
      *
-     * @param   item        The item to parse
+     * @param   method      The method to invoke
      * @param   menuItems   The menu items
-     * @param   parameters  Invocation parameters
-     * @return              The item parsed
+     * @param   parameters  Parameters
+     * @return              The returned value, {@code null} if the method did not return
      */
-    private Object parseItem(final String item, final HashMap<String, WeakReference<Component>> menuItems, final String... parameters)
+    public Object[] invoke(final String method, final HashMap<String, WeakReference<Component>> menuItems, final String... parameters)
     {
-        String s = item;
-        if (s.startsWith("("))
-            return exec(s.substring(1, s.length() - 1), menuItems, parameters);
-        if (s.startsWith("$"))
-        {
-            if (s.equals("$$"))
-            {
-                final ArrayList<Object> rc = new ArrayList<Object>();
-                for (final String parameter : parameters)
-                    rc.add(parseItem(parameter, menuItems, parameters));
-                return rc;
-            }
-            
-            s = parameters[Integer.parseInt(s.substring(1))];
-        }
-        else if (s.startsWith("%"))
-            return this.variables.get(s.substring(1));
-        
-        if (s.startsWith("\"") && s.endsWith("\""))
-            return s.substring(1, s.length() - 1).replace("\"\"", "\"").replace("\\\\", "\\");
-        return (s.equals("true") || s.equals("1")) ? Boolean.TRUE : Boolean.FALSE;
+        final Object[] returned = invoke(this.methods.get(method).intValue(), menuItems, (Object[])parameters);
+        if (returned != null)
+            for (int i = 0; i < returned.length; i++)
+                returned[i] = MenpIdSet.export(returned[i]);
+        return returned;
     }
     
     /**
-     * Creates a list of a partial code
+     * Resolves a method in the Menp code, so that it can be invoked without looking it up
      *
-     * @param   lcode  The partial code
-     * @return         The list items
+     * @param   method  The method
+     * @return          The method's entry point, -1 if there is no such method
      */
-    private ArrayList<String> list(final String lcode)
+    int resolve(final String method)
     {
-        final ArrayList<String> rc = new ArrayList<String>();
-        final String p = lcode.endsWith(";") ? lcode : (lcode + ';');
-        
-        int start = 0;
-        boolean str = false;
-        int brackets = 0;
-        for (int i = 0, n = p.length(); i < n; i++)
-        {
-            final char c = p.charAt(i);
-            if (str)
+        final Integer entry = this.methods.get(method);
+        return entry == null ? -1 : entry.intValue();
+    }
+    
+    /**
+     * Invokes a resolved method in the Menp code
+     *
+     * @param   entry       The method's entry point, as returned by {@link #resolve(String)}
+     * @param   menuItems   The menu items
+     * @param   parameters  Parameters
+     * @return              The returned value, {@code null} if the method did not return
+     */
+    Object[] invoke(final int entry, final HashMap<String, WeakReference<Component>> menuItems, final Object... parameters)
+    {
+        final int frame = this.frames[entry];
+        final MenpNode.Context context = new MenpNode.Context(this, menuItems, parameters, frame == 0 ? NO_LOCALS : new Object[frame]);
+        final MethodHandle handle = this.compiled == null ? null : this.compiled[entry];
+        if (handle == null)
+            this.bodies[entry].eval(context);
+        else
+            try
             {
-                if (c == '"')
-                    str = false;
+                //The cast gives the call the exact type (Context)Object of the handle, the value is unused
+                final Object ignored = (Object)handle.invokeExact(context);
             }
-            else if (c == '(')
-                brackets++;
-            else if (c == ')')
-                brackets--;
-            else if ((c == ';') && (brackets == 0))
+            catch (final RuntimeException err)
             {
-                start = i + 1;
-                rc.add(p.substring(start, i - 1));
+                throw err;
             }
-        }
-        
-        return rc;
+            catch (final Error err)
+            {
+                throw err;
+            }
+            catch (final Throwable err)
+            {
+                throw new RuntimeException(err);
+            }
+        return context.returned;
     }
     
 }
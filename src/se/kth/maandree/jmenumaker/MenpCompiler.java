@@ -0,0 +1,399 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import java.util.*;
+import java.lang.invoke.*;
+
+
+/**
+ * Compiles parsed Menp methods into composed {@link MethodHandle}s.
+ * <p>
+ * Every node becomes a method handle taking the invocation's
+ * {@link MenpNode.Context} and returning the node's value. Control flow
+ * and argument evaluation are expressed with method handle combinators,
+ * so the JIT can inline a whole method. Nodes without a compiled form
+ * are evaluated by the interpreter from within the compiled method.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+final class MenpCompiler
+{
+    /**
+     * Hidden constructor
+     */
+    private MenpCompiler()
+    {
+        //Nullify default constructor
+    }
+    
+    
+    
+    /**
+     * The deepest nesting of nodes that is compiled, deeper nodes are interpreted,
+     * so that neither compiling nor invoking a method can overflow the stack
+     */
+    private static final int MAX_DEPTH = 64;
+    
+    /**
+     * The type of compiled nodes
+     */
+    static final MethodType NODE_TYPE = MethodType.methodType(Object.class, MenpNode.Context.class);
+    
+    /**
+     * The type of node operations on evaluated items
+     */
+    private static final MethodType OPERATION_TYPE = MethodType.methodType(Object.class, MenpNode.Context.class, Object[].class);
+    
+    /**
+     * The type of combinations of evaluated items
+     */
+    private static final MethodType COMBINE_TYPE = MethodType.methodType(Object.class, Object[].class);
+    
+    /**
+     * The type of set combinations of evaluated items, which index the IDs of the compiled menu
+     */
+    private static final MethodType SET_COMBINE_TYPE = MethodType.methodType(Object.class, MenuModel.class, Object[].class);
+    
+    
+    
+    /**
+     * {@link MenpNode#eval(MenpNode.Context)}
+     */
+    private static final MethodHandle EVAL;
+    
+    /**
+     * {@link #parameter(MenpNode.Context, int)}
+     */
+    private static final MethodHandle PARAMETER;
+    
+    /**
+     * {@link #parameters(MenpNode.Context)}
+     */
+    private static final MethodHandle PARAMETERS;
+    
+    /**
+     * {@link #local(MenpNode.Context, int)}
+     */
+    private static final MethodHandle LOCAL;
+    
+    /**
+     * {@link #global(MenpNode.Context, int)}
+     */
+    private static final MethodHandle GLOBAL;
+    
+    /**
+     * {@link MenpNode.Variable#set(MenpNode.Context, Object)}
+     */
+    private static final MethodHandle ASSIGN;
+    
+    /**
+     * {@link #returned(MenpNode.Context)}
+     */
+    private static final MethodHandle RETURNED;
+    
+    /**
+     * {@link #isTrue(Object)}
+     */
+    private static final MethodHandle IS_TRUE;
+    
+    /**
+     * The getter of {@link MenpNode.Context#model}
+     */
+    private static final MethodHandle MODEL;
+    
+    /**
+     * {@link MenpNode.Return#ret(MenpNode.Context, Object[])}
+     */
+    private static final MethodHandle RETURN;
+    
+    /**
+     * {@link MenpNode.Call#call(MenpNode.Context, Object[])}
+     */
+    private static final MethodHandle CALL;
+    
+    /**
+     * {@link MenpNode.Mutate#apply(MenpNode.Context, Object[])}
+     */
+    private static final MethodHandle MUTATE;
+    
+    /**
+     * {@link MenpNode.Query#answer(MenpNode.Context, Object[])}
+     */
+    private static final MethodHandle QUERY;
+    
+    /**
+     * The {@code combine} methods of {@link MenpNode.Expand}, {@link MenpNode.Not},
+     * {@link MenpNode.Same}, {@link MenpNode.Union}, {@link MenpNode.Intersection}
+     * and {@link MenpNode.Parity}, in that order, the first three adapted to the type {@link #OPERATION_TYPE},
+     * the set combinations are virtual, so that they use the sets of their literal items, and have the type
+     * {@link #SET_COMBINE_TYPE} once bound to their nodes
+     */
+    private static final MethodHandle[] COMBINE;
+    
+    /**
+     * The classes whose {@code combine} methods are in {@link #COMBINE}
+     */
+    private static final Class<?>[] COMBINERS = { MenpNode.Expand.class, MenpNode.Not.class, MenpNode.Same.class,
+                                                  MenpNode.Union.class, MenpNode.Intersection.class, MenpNode.Parity.class };
+    
+    
+    
+    /**
+     * Class initialiser
+     */
+    static
+    {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try
+        {
+            EVAL       = lookup.findVirtual(MenpNode.class, "eval", NODE_TYPE);
+            PARAMETER  = lookup.findStatic(MenpCompiler.class, "parameter", MethodType.methodType(Object.class, MenpNode.Context.class, int.class));
+            PARAMETERS = lookup.findStatic(MenpCompiler.class, "parameters", NODE_TYPE);
+            LOCAL      = lookup.findStatic(MenpCompiler.class, "local",  MethodType.methodType(Object.class, MenpNode.Context.class, int.class));
+            GLOBAL     = lookup.findStatic(MenpCompiler.class, "global", MethodType.methodType(Object.class, MenpNode.Context.class, int.class));
+            ASSIGN     = lookup.findVirtual(MenpNode.Variable.class, "set", MethodType.methodType(Object.class, MenpNode.Context.class, Object.class));
+            RETURNED   = lookup.findStatic(MenpCompiler.class, "returned", MethodType.methodType(boolean.class, MenpNode.Context.class));
+            IS_TRUE    = lookup.findStatic(MenpCompiler.class, "isTrue", MethodType.methodType(boolean.class, Object.class));
+            MODEL      = lookup.findGetter(MenpNode.Context.class, "model", MenuModel.class);
+            RETURN     = lookup.findStatic(MenpNode.Return.class, "ret", OPERATION_TYPE);
+            CALL       = lookup.findVirtual(MenpNode.Call.class, "call", OPERATION_TYPE);
+            MUTATE     = lookup.findVirtual(MenpNode.Mutate.class, "apply", OPERATION_TYPE);
+            QUERY      = lookup.findVirtual(MenpNode.Query.class, "answer", OPERATION_TYPE);
+            
+            COMBINE = new MethodHandle[COMBINERS.length];
+            for (int i = 0; i < COMBINERS.length; i++)
+                if (i < 3)
+                    COMBINE[i] = MethodHandles.dropArguments(lookup.findStatic(COMBINERS[i], "combine", COMBINE_TYPE), 0, MenpNode.Context.class);
+                else
+                    COMBINE[i] = lookup.findVirtual(COMBINERS[i], "combine", SET_COMBINE_TYPE);
+        }
+        catch (final ReflectiveOperationException err)
+        {
+            throw new ExceptionInInitializerError(err);
+        }
+    }
+    
+    
+    
+    /**
+     * Compiles a node
+     *
+     * @param   node  The node
+     * @return        A method handle of the type {@link #NODE_TYPE} that evaluates the node
+     */
+    static MethodHandle compile(final MenpNode node)
+    {
+        return compile(node, 0);
+    }
+    
+    /**
+     * Compiles a node, nodes nested deeper than {@link #MAX_DEPTH} are interpreted
+     *
+     * @param   node   The node
+     * @param   depth  The number of nodes the node is nested in
+     * @return         A method handle of the type {@link #NODE_TYPE} that evaluates the node
+     */
+    private static MethodHandle compile(final MenpNode node, final int depth)
+    {
+        if (depth > MAX_DEPTH)
+            return EVAL.bindTo(node);
+        
+        if (node instanceof MenpNode.Literal)
+            return MethodHandles.dropArguments(MethodHandles.constant(Object.class, ((MenpNode.Literal)node).value), 0, MenpNode.Context.class);
+        if (node instanceof MenpNode.Parameter)
+            return MethodHandles.insertArguments(PARAMETER, 1, Integer.valueOf(((MenpNode.Parameter)node).index));
+        if (node instanceof MenpNode.Parameters)
+            return PARAMETERS;
+        if (node instanceof MenpNode.Variable)
+        {
+            final MenpNode.Variable variable = (MenpNode.Variable)node;
+            return MethodHandles.insertArguments(variable.local ? LOCAL : GLOBAL, 1, Integer.valueOf(variable.slot));
+        }
+        
+        if (node instanceof MenpNode.Block)
+        {
+            final MenpNode.Block block = (MenpNode.Block)node;
+            final int n = block.statements.length;
+            if (depth + n > MAX_DEPTH)
+                return EVAL.bindTo(node);
+            
+            //Each statement is nested in the statements before it
+            MethodHandle rc = block.last == null ? constant(null) : compile(block.last, depth + n + 1);
+            for (int i = n - 1; i >= 0; i--)
+            {
+                //Evaluate the statement, then stop if it returned and otherwise continue with the rest
+                final MethodHandle rest = MethodHandles.guardWithTest(RETURNED, constant(null), rc);
+                rc = MethodHandles.foldArguments(MethodHandles.dropArguments(rest, 0, Object.class), compile(block.statements[i], depth + i + 1));
+            }
+            return rc;
+        }
+        
+        if (node instanceof MenpNode.If)
+        {
+            final MenpNode.If branch = (MenpNode.If)node;
+            return MethodHandles.guardWithTest(MethodHandles.filterReturnValue(compile(branch.condition, depth + 1), IS_TRUE),
+                                               branch.then      == null ? constant(null) : compile(branch.then, depth + 1),
+                                               branch.otherwise == null ? constant(null) : compile(branch.otherwise, depth + 1));
+        }
+        
+        if (node instanceof MenpNode.Assign)
+        {
+            final MenpNode.Assign assign = (MenpNode.Assign)node;
+            final MethodHandle rc = MethodHandles.filterArguments(ASSIGN.bindTo(assign.variable), 1, compile(assign.value, depth + 1));
+            return MethodHandles.permuteArguments(rc, NODE_TYPE, 0, 0);
+        }
+        
+        if (node instanceof MenpNode.Return)
+            return collect(RETURN, ((MenpNode.Return)node).values, depth);
+        if (node instanceof MenpNode.Call)
+            return collect(CALL.bindTo(node), ((MenpNode.Call)node).arguments, depth);
+        if (node instanceof MenpNode.Mutate)
+            return collect(MUTATE.bindTo(node), ((MenpNode.Mutate)node).items, depth);
+        if (node instanceof MenpNode.Query)
+            return collect(QUERY.bindTo(node), ((MenpNode.Query)node).items, depth);
+        
+        for (int i = 0; i < COMBINERS.length; i++)
+            if (COMBINERS[i] == node.getClass())
+                return collect(i < 3 ? COMBINE[i] : MethodHandles.filterArguments(COMBINE[i].bindTo(node), 0, MODEL), items(node), depth);
+        
+        //No compiled form, interpret the node
+        return EVAL.bindTo(node);
+    }
+    
+    /**
+     * Composes an operation on evaluated items with the evaluation of the items
+     *
+     * @param   operation  Method handle of the type {@link #OPERATION_TYPE}
+     * @param   items      The items
+     * @param   depth      The number of nodes the operation's node is nested in
+     * @return             A method handle of the type {@link #NODE_TYPE}
+     */
+    private static MethodHandle collect(final MethodHandle operation, final MenpNode[] items, final int depth)
+    {
+        final MethodHandle[] filters = new MethodHandle[items.length];
+        for (int i = 0; i < items.length; i++)
+            filters[i] = compile(items[i], depth + 1);
+        
+        final MethodHandle rc = MethodHandles.filterArguments(operation.asCollector(Object[].class, items.length), 1, filters);
+        return MethodHandles.permuteArguments(rc, NODE_TYPE, new int[items.length + 1]);
+    }
+    
+    /**
+     * Gets the items of a node that combines evaluated items
+     *
+     * @param   node  The node
+     * @return        The node's items
+     */
+    private static MenpNode[] items(final MenpNode node)
+    {
+        if (node instanceof MenpNode.Expand)        return ((MenpNode.Expand)node).items;
+        if (node instanceof MenpNode.Not)           return ((MenpNode.Not)node).items;
+        if (node instanceof MenpNode.Same)          return ((MenpNode.Same)node).items;
+        if (node instanceof MenpNode.Union)         return ((MenpNode.Union)node).items;
+        if (node instanceof MenpNode.Intersection)  return ((MenpNode.Intersection)node).items;
+        return ((MenpNode.Parity)node).items;
+    }
+    
+    /**
+     * Creates a method handle of the type {@link #NODE_TYPE} that returns a constant
+     *
+     * @param   value  The constant
+     * @return         The method handle
+     */
+    private static MethodHandle constant(final Object value)
+    {
+        return MethodHandles.dropArguments(MethodHandles.constant(Object.class, value), 0, MenpNode.Context.class);
+    }
+    
+    
+    
+    /**
+     * Gets a method parameter
+     *
+     * @param   context  The invocation
+     * @param   index    The parameter's index
+     * @return           The parameter, {@code null} if out of range
+     */
+    private static Object parameter(final MenpNode.Context context, final int index)
+    {
+        return index < context.parameters.length ? context.parameters[index] : null;
+    }
+    
+    /**
+     * Gets all method parameters
+     *
+     * @param   context  The invocation
+     * @return           The parameters
+     */
+    private static Object parameters(final MenpNode.Context context)
+    {
+        return new ArrayList<Object>(Arrays.asList(context.parameters));
+    }
+    
+    /**
+     * Gets a local variable
+     *
+     * @param   context  The invocation
+     * @param   slot     The variable's slot in the call frame
+     * @return           The variable's value
+     */
+    private static Object local(final MenpNode.Context context, final int slot)
+    {
+        return context.locals[slot];
+    }
+    
+    /**
+     * Gets a global variable
+     *
+     * @param   context  The invocation
+     * @param   slot     The variable's slot among the global variables
+     * @return           The variable's value
+     */
+    private static Object global(final MenpNode.Context context, final int slot)
+    {
+        return context.menp.globals[slot];
+    }
+    
+    /**
+     * Checks whether the method has returned
+     *
+     * @param   context  The invocation
+     * @return           Whether the method has returned
+     */
+    private static boolean returned(final MenpNode.Context context)
+    {
+        return context.returned != null;
+    }
+    
+    /**
+     * Checks whether a value is true
+     *
+     * @param   value  The value
+     * @return         Whether the value is {@link Boolean#TRUE}
+     */
+    private static boolean isTrue(final Object value)
+    {
+        return Boolean.TRUE.equals(value);
+    }
+    
+}
+
+
@@ -0,0 +1,417 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import java.util.*;
+
+
+/**
+ * Set of Menp values, kept as a bit set over dense indexes.
+ * <p>
+ * The IDs of the menu are indexed by their handles in the {@link MenuModel},
+ * other values are given indexes after them as they are met. The values are
+ * remembered in order of first insertion, and may be followed by a boolean,
+ * the result of the set operation on booleans. Sets are passed between Menp
+ * instructions as they are, and are only converted back to lists when they
+ * leave Menp, that is, when items are set or queried, when values are compared,
+ * and when they are returned to the caller of {@link Menp}.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+final class MenpIdSet
+{
+    /**
+     * Constructor
+     *
+     * @param  model  The compiled menu, {@code null} if unknown
+     */
+    MenpIdSet(final MenuModel model)
+    {
+        this.model = model;
+        this.ids = model == null ? 0 : model.getIdCount();
+        this.bits = new BitSet(this.ids);
+    }
+    
+    
+    
+    /**
+     * The compiled menu, {@code null} if unknown
+     */
+    private final MenuModel model;
+    
+    /**
+     * The number of IDs in the compiled menu, indexes from this number are other values
+     */
+    private final int ids;
+    
+    /**
+     * The indexes of the values in the set
+     */
+    private final BitSet bits;
+    
+    /**
+     * The indexes of the values in the set, in order of insertion
+     */
+    private int[] order = new int[16];
+    
+    /**
+     * The number of values in the set
+     */
+    private int size = 0;
+    
+    /**
+     * The boolean that follows the values, {@code null} if none
+     */
+    private Boolean bool = null;
+    
+    /**
+     * Map from values that are not IDs to their indexes, {@code null} until needed
+     */
+    private HashMap<Object, Integer> extraIndexes = null;
+    
+    /**
+     * The values that are not IDs, by their indexes less the number of IDs
+     */
+    private ArrayList<Object> extras = null;
+    
+    
+    
+    /**
+     * Checks whether a Menp value is a list, that is, an {@link ArrayList} or a {@link MenpIdSet}
+     *
+     * @param   value  The value
+     * @return         Whether the value is a list
+     */
+    static boolean isList(final Object value)
+    {
+        return (value instanceof ArrayList) || (value instanceof MenpIdSet);
+    }
+    
+    /**
+     * Converts the sets in a Menp value, and in the lists in it, to lists
+     *
+     * @param   value  The value
+     * @return         The value, without sets
+     */
+    static Object export(final Object value)
+    {
+        if (value instanceof MenpIdSet)
+            return ((MenpIdSet)value).toList();
+        if ((value instanceof ArrayList) == false)
+            return value;
+        
+        final ArrayList<?> list = (ArrayList<?>)value;
+        ArrayList<Object> rc = null;
+        for (int i = 0, n = list.size(); i < n; i++)
+        {
+            final Object element = list.get(i);
+            final Object exported = export(element);
+            if ((exported != element) && (rc == null))
+                rc = new ArrayList<Object>(list.subList(0, i));
+            if (rc != null)
+                rc.add(exported);
+        }
+        return rc == null ? value : rc;
+    }
+    
+    /**
+     * Creates a set of the values of a literal, so that its IDs are only looked up once
+     *
+     * @param   model  The compiled menu, {@code null} if unknown
+     * @param   value  The literal's value
+     * @return         The set, {@code null} if the literal is a boolean, or a list with duplicates
+     */
+    static MenpIdSet of(final MenuModel model, final Object value)
+    {
+        if (value instanceof Boolean)
+            return null;
+        final MenpIdSet rc = new MenpIdSet(model);
+        rc.addAll(value);
+        if ((value instanceof ArrayList) && (rc.size != ((ArrayList<?>)value).size()))
+            return null;
+        return rc;
+    }
+    
+    
+    
+    /**
+     * Gets the index of a value, giving it an index if it does not have one
+     *
+     * @param   value  The value
+     * @return         The value's index
+     */
+    int index(final Object value)
+    {
+        final Object key = export(value);
+        final int index = find(key);
+        if (index >= 0)
+            return index;
+        
+        if (this.extras == null)
+        {
+            this.extraIndexes = new HashMap<Object, Integer>();
+            this.extras = new ArrayList<Object>();
+        }
+        this.extraIndexes.put(key, Integer.valueOf(this.ids + this.extras.size()));
+        this.extras.add(key);
+        return this.ids + this.extras.size() - 1;
+    }
+    
+    /**
+     * Gets the index of a value
+     *
+     * @param   value  The value
+     * @return         The value's index, -1 if it does not have one, and thus is not in the set
+     */
+    int find(final Object value)
+    {
+        if ((this.model != null) && (value instanceof String))
+        {
+            final int handle = this.model.getHandle((String)value);
+            if (handle >= 0)
+                return handle;
+        }
+        final Integer index = this.extraIndexes == null ? null : this.extraIndexes.get(export(value));
+        return index == null ? -1 : index.intValue();
+    }
+    
+    /**
+     * Gets the index in this set of a value in another set, giving it an index if it does not have one,
+     * IDs are not looked up if both sets index the same compiled menu
+     *
+     * @param   set  The other set
+     * @param   i    The position of the value in the other set, {@link #length()} less one for its boolean
+     * @return       The value's index in this set
+     */
+    int translate(final MenpIdSet set, final int i)
+    {
+        if (i == set.size)
+            return index(set.bool);
+        final int index = set.order[i];
+        if (index >= set.ids)
+            return index(set.extras.get(index - set.ids));
+        return set.model == this.model ? index : index(set.model.getId(index));
+    }
+    
+    /**
+     * Adds a value to the set
+     *
+     * @param  index  The value's index
+     */
+    void add(final int index)
+    {
+        if (this.bits.get(index))
+            return;
+        this.bits.set(index);
+        if (this.size == this.order.length)
+            this.order = Arrays.copyOf(this.order, this.size << 1);
+        this.order[this.size++] = index;
+    }
+    
+    /**
+     * Adds a value, or the elements of a list, to the set
+     *
+     * @param  item  The value or list
+     */
+    void addAll(final Object item)
+    {
+        if (item instanceof MenpIdSet)
+        {
+            final MenpIdSet set = (MenpIdSet)item;
+            for (int i = 0, n = set.length(); i < n; i++)
+                add(translate(set, i));
+        }
+        else if (item instanceof ArrayList)
+            for (final Object element : (ArrayList<?>)item)
+                add(index(element));
+        else
+            add(index(item));
+    }
+    
+    /**
+     * Checks whether a value is in the set
+     *
+     * @param   index  The value's index
+     * @return         Whether the value is in the set
+     */
+    boolean contains(final int index)
+    {
+        return (index >= 0) && this.bits.get(index);
+    }
+    
+    /**
+     * Removes all values that are not in a list
+     *
+     * @param  list  The list, an {@link ArrayList} or a {@link MenpIdSet}
+     */
+    void retainAll(final Object list)
+    {
+        final BitSet keep = new BitSet();
+        if (list instanceof MenpIdSet)
+        {
+            final MenpIdSet set = (MenpIdSet)list;
+            for (int i = 0, n = set.length(); i < n; i++)
+                keep.set(translate(set, i));
+        }
+        else
+            for (final Object element : (ArrayList<?>)list)
+            {
+                final int index = find(element);
+                if (index >= 0)
+                    keep.set(index);
+            }
+        retainAll(keep);
+    }
+    
+    /**
+     * Removes all values that are not in a bit set
+     *
+     * @param  keep  The indexes of the values to keep
+     */
+    void retainAll(final BitSet keep)
+    {
+        this.bits.and(keep);
+        int n = 0;
+        for (int i = 0; i < this.size; i++)
+            if (this.bits.get(this.order[i]))
+                this.order[n++] = this.order[i];
+        this.size = n;
+    }
+    
+    /**
+     * Removes all values
+     */
+    void clear()
+    {
+        this.bits.clear();
+        this.size = 0;
+    }
+    
+    /**
+     * Sets the boolean that follows the values
+     *
+     * @param  bool  The boolean, {@code null} for none
+     */
+    void setBoolean(final Boolean bool)
+    {
+        this.bool = bool;
+    }
+    
+    /**
+     * Gets the number of values in the set, including the boolean that follows them
+     *
+     * @return  The length of the set as a list
+     */
+    int length()
+    {
+        return this.bool == null ? this.size : this.size + 1;
+    }
+    
+    /**
+     * Gets a value in the set
+     *
+     * @param   i  The position of the value, in order of insertion, {@link #length()} less one for the boolean
+     * @return     The value
+     */
+    Object get(final int i)
+    {
+        if (i == this.size)
+            return this.bool;
+        final int index = this.order[i];
+        return index < this.ids ? this.model.getId(index) : this.extras.get(index - this.ids);
+    }
+    
+    /**
+     * Gets the set as a Menp value
+     *
+     * @return  The set, or its value if it has exactly one
+     */
+    Object value()
+    {
+        return length() == 1 ? get(0) : this;
+    }
+    
+    /**
+     * Gets the values in the set, in order of insertion, followed by the boolean
+     *
+     * @return  The values
+     */
+    ArrayList<Object> toList()
+    {
+        final int n = length();
+        final ArrayList<Object> rc = new ArrayList<Object>(n + 1);
+        for (int i = 0; i < n; i++)
+            rc.add(get(i));
+        return rc;
+    }
+    
+    
+    
+    /**
+     * Sets of the literal items of a set instruction, for one compiled menu
+     */
+    static final class Literals
+    {
+        /**
+         * Constructor
+         *
+         * @param  model  The compiled menu, {@code null} if unknown
+         * @param  items  The instruction's items
+         */
+        private Literals(final MenuModel model, final MenpNode[] items)
+        {
+            this.model = model;
+            this.sets = new MenpIdSet[items.length];
+            for (int i = 0; i < items.length; i++)
+                if (items[i] instanceof MenpNode.Literal)
+                    this.sets[i] = of(model, ((MenpNode.Literal)items[i]).value);
+        }
+        
+        
+        
+        /**
+         * The compiled menu, {@code null} if unknown
+         */
+        private final MenuModel model;
+        
+        /**
+         * The sets of the literal items, by item, {@code null} elements for other items
+         */
+        final MenpIdSet[] sets;
+        
+        
+        
+        /**
+         * Gets the sets of the literal items of an instruction for a compiled menu
+         *
+         * @param   cached  The sets last used by the instruction, {@code null} if none
+         * @param   model   The compiled menu, {@code null} if unknown
+         * @param   items   The instruction's items
+         * @return          The sets, {@code cached} if it is for the compiled menu
+         */
+        static Literals get(final Literals cached, final MenuModel model, final MenpNode[] items)
+        {
+            return (cached != null) && (cached.model == model) ? cached : new Literals(model, items);
+        }
+    }
+    
+}
+
+
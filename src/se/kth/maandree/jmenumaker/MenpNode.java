@@ -0,0 +1,1382 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.*;
+import java.lang.ref.*;
+
+
+/**
+ * Node in a parsed Menp method, instructions and their parameters alike.
+ * <p>
+ * A node evaluates to a value: a {@link String}, a {@link Boolean}, an
+ * {@link ArrayList} of values, or {@code null}. Instructions that produce
+ * a list of exactly one value evaluate to that value.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+abstract class MenpNode
+{
+    /**
+     * Constructor
+     */
+    MenpNode()
+    {
+        //Nothing to initialise
+    }
+    
+    
+    
+    /**
+     * Setting: visible
+     */
+    static final int VISIBLE = -1;
+    
+    /**
+     * Setting: hidden
+     */
+    static final int HIDDEN = 1;
+    
+    /**
+     * Setting: enabled
+     */
+    static final int ENABLED = -2;
+    
+    /**
+     * Setting: disabled
+     */
+    static final int DISABLED = 2;
+    
+    /**
+     * Setting: selected
+     */
+    static final int SELECTED = 3;
+    
+    /**
+     * Setting: not selected
+     */
+    static final int UNSELECTED = -3;
+    
+    /**
+     * Setting: unknown, applying it does nothing and querying it yields false
+     */
+    static final int UNKNOWN = 0;
+    
+    
+    
+    /**
+     * Nodes without children
+     */
+    static final MenpNode[] NONE = new MenpNode[0];
+    
+    
+    
+    /**
+     * Evaluates the node
+     *
+     * @param   context  The invocation the node is evaluated in
+     * @return           The node's value
+     */
+    abstract Object eval(final Context context);
+    
+    /**
+     * Gets the nodes evaluated by this node, in order of evaluation
+     *
+     * @return  The node's children
+     */
+    MenpNode[] children()
+    {
+        return NONE;
+    }
+    
+    
+    
+    /**
+     * State of one invocation of a Menp method
+     */
+    static final class Context
+    {
+        /**
+         * Constructor
+         *
+         * @param  menp        The Menp program
+         * @param  menuItems   The menu items
+         * @param  parameters  The method's parameters
+         * @param  locals      The method's local variables, the call frame
+         */
+        Context(final Menp menp, final HashMap<String, WeakReference<Component>> menuItems, final Object[] parameters, final Object[] locals)
+        {
+            this.menp = menp;
+            this.menuItems = menuItems;
+            this.parameters = parameters;
+            this.locals = locals;
+            
+            final MenuHandles handles = MenuHandles.of(menuItems);
+            this.model = handles == null ? null : handles.getModel();
+        }
+        
+        /**
+         * The Menp program
+         */
+        final Menp menp;
+        
+        /**
+         * The menu items
+         */
+        final HashMap<String, WeakReference<Component>> menuItems;
+        
+        /**
+         * The compiled menu the menu items were built from, {@code null} if unknown
+         */
+        final MenuModel model;
+        
+        /**
+         * The method's parameters
+         */
+        final Object[] parameters;
+        
+        /**
+         * The method's local variables, by slot
+         */
+        final Object[] locals;
+        
+        /**
+         * The returned values, {@code null} until the method returns
+         */
+        Object[] returned = null;
+    }
+    
+    
+    
+    /**
+     * A string or boolean literal
+     */
+    static final class Literal extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  value  The value
+         */
+        Literal(final Object value)
+        {
+            this.value = value;
+        }
+        
+        /**
+         * The value
+         */
+        final Object value;
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return this.value;
+        }
+    }
+    
+    
+    /**
+     * A method parameter, {@code $n}
+     */
+    static final class Parameter extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  index  The parameter's index
+         */
+        Parameter(final int index)
+        {
+            this.index = index;
+        }
+        
+        /**
+         * The parameter's index
+         */
+        final int index;
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return this.index < context.parameters.length ? context.parameters[this.index] : null;
+        }
+    }
+    
+    
+    /**
+     * All method parameters, {@code $$}
+     */
+    static final class Parameters extends MenpNode
+    {
+        /**
+         * Constructor
+         */
+        Parameters()
+        {
+            //Nothing to initialise
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return new ArrayList<Object>(Arrays.asList(context.parameters));
+        }
+    }
+    
+    
+    /**
+     * A variable, {@code %name}
+     */
+    static final class Variable extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  name  The variable's name
+         */
+        Variable(final String name)
+        {
+            this.name = name;
+        }
+        
+        /**
+         * The variable's name
+         */
+        final String name;
+        
+        /**
+         * Whether the variable is local to the method's call frame
+         */
+        boolean local = false;
+        
+        /**
+         * The variable's slot, in the call frame if local, otherwise among the global variables
+         */
+        int slot = -1;
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return this.local ? context.locals[this.slot] : context.menp.globals[this.slot];
+        }
+        
+        /**
+         * Assigns the variable
+         *
+         * @param   context  The invocation the node is evaluated in
+         * @param   value    The value, {@code null} to undeclare the variable
+         * @return           The value
+         */
+        Object set(final Context context, final Object value)
+        {
+            if (this.local)
+                context.locals[this.slot] = value;
+            else
+                context.menp.globals[this.slot] = value;
+            return value;
+        }
+    }
+    
+    
+    /**
+     * A block of bracketed instructions, optionally followed by a non-bracketed instruction
+     */
+    static final class Block extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  statements  The bracketed instructions
+         * @param  last        The non-bracketed instruction, {@code null} if none
+         */
+        Block(final MenpNode[] statements, final MenpNode last)
+        {
+            this.statements = statements;
+            this.last = last;
+        }
+        
+        /**
+         * The bracketed instructions
+         */
+        final MenpNode[] statements;
+        
+        /**
+         * The non-bracketed instruction, {@code null} if none
+         */
+        final MenpNode last;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.last == null ? this.statements : concat(this.statements, this.last);
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            for (final MenpNode statement : this.statements)
+            {
+                statement.eval(context);
+                if (context.returned != null)
+                    return null;
+            }
+            return this.last == null ? null : this.last.eval(context);
+        }
+    }
+    
+    
+    /**
+     * Method call, {@code >}
+     */
+    static final class Call extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  method     The method's name
+         * @param  arguments  The arguments
+         */
+        Call(final String method, final MenpNode[] arguments)
+        {
+            this(method, arguments, -1);
+        }
+        
+        /**
+         * Constructor
+         *
+         * @param  method     The method's name
+         * @param  arguments  The arguments
+         * @param  entry      The method's entry point, -1 if there is no such method
+         */
+        Call(final String method, final MenpNode[] arguments, final int entry)
+        {
+            this.method = method;
+            this.arguments = arguments;
+            this.entry = entry;
+        }
+        
+        /**
+         * The method's name
+         */
+        final String method;
+        
+        /**
+         * The arguments
+         */
+        final MenpNode[] arguments;
+        
+        /**
+         * The method's entry point, -1 if there is no such method
+         */
+        int entry;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.arguments;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return call(context, evalAll(this.arguments, context));
+        }
+        
+        /**
+         * Invokes the method
+         *
+         * @param   context    The invocation the node is evaluated in
+         * @param   arguments  The evaluated arguments
+         * @return             The node's value
+         */
+        Object call(final Context context, final Object[] arguments)
+        {
+            if (this.entry < 0)
+                throw new IllegalStateException("No such Menp method: " + this.method);
+            final Object[] returned = context.menp.invoke(this.entry, context.menuItems, arguments);
+            return returned == null ? null : unwrap(new ArrayList<Object>(Arrays.asList(returned)));
+        }
+    }
+    
+    
+    /**
+     * Return, {@code <}
+     */
+    static final class Return extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  values  The returned values
+         */
+        Return(final MenpNode[] values)
+        {
+            this.values = values;
+        }
+        
+        /**
+         * The returned values
+         */
+        final MenpNode[] values;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.values;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return ret(context, evalAll(this.values, context));
+        }
+        
+        /**
+         * Returns from the method
+         *
+         * @param   context  The invocation the node is evaluated in
+         * @param   values   The evaluated values
+         * @return           The node's value
+         */
+        static Object ret(final Context context, final Object[] values)
+        {
+            context.returned = values;
+            return unwrap(new ArrayList<Object>(Arrays.asList(values)));
+        }
+    }
+    
+    
+    /**
+     * Undeclare variables, {@code ~}
+     */
+    static final class Undeclare extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  variables  The variables
+         */
+        Undeclare(final Variable[] variables)
+        {
+            this.variables = variables;
+        }
+        
+        /**
+         * The variables
+         */
+        final Variable[] variables;
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            for (final Variable variable : this.variables)
+                variable.set(context, null);
+            return null;
+        }
+    }
+    
+    
+    /**
+     * Expand nested lists, {@code .}
+     */
+    static final class Expand extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  items  The items
+         */
+        Expand(final MenpNode[] items)
+        {
+            this.items = items;
+        }
+        
+        /**
+         * The items
+         */
+        final MenpNode[] items;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.items;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return combine(evalAll(this.items, context));
+        }
+        
+        /**
+         * Combines the evaluated items
+         *
+         * @param   items  The evaluated items
+         * @return         The node's value
+         */
+        static Object combine(final Object[] items)
+        {
+            final ArrayList<Object> rc = new ArrayList<Object>();
+            for (final Object item : items)
+            {
+                if (item instanceof MenpIdSet)
+                    for (int i = 0, n = ((MenpIdSet)item).length(); i < n; i++)
+                        rc.add(((MenpIdSet)item).get(i));
+                else if (item instanceof ArrayList)
+                    rc.addAll((ArrayList<?>)item);
+                else
+                    rc.add(item);
+            }
+            return unwrap(rc);
+        }
+    }
+    
+    
+    /**
+     * Not, {@code *}
+     */
+    static final class Not extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  items  The items
+         */
+        Not(final MenpNode[] items)
+        {
+            this.items = items;
+        }
+        
+        /**
+         * The items
+         */
+        final MenpNode[] items;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.items;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return combine(evalAll(this.items, context));
+        }
+        
+        /**
+         * Combines the evaluated items
+         *
+         * @param   items  The evaluated items
+         * @return         The node's value
+         */
+        static Object combine(final Object[] items)
+        {
+            final ArrayList<Object> rc = new ArrayList<Object>();
+            for (final Object item : items)
+            {
+                if (item instanceof Boolean)
+                    rc.add(Boolean.valueOf(((Boolean)item).booleanValue() == false));
+                else
+                    rc.add(item);
+            }
+            return unwrap(rc);
+        }
+    }
+    
+    
+    /**
+     * Equal, {@code =}
+     */
+    static final class Same extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  items  The left comparand followed by the right comparands
+         */
+        Same(final MenpNode[] items)
+        {
+            this.items = items;
+        }
+        
+        /**
+         * The left comparand followed by the right comparands
+         */
+        final MenpNode[] items;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.items;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return combine(evalAll(this.items, context));
+        }
+        
+        /**
+         * Compares the evaluated comparands, sets are compared as the lists they represent
+         *
+         * @param   items  The evaluated left comparand followed by the evaluated right comparands
+         * @return         The node's value
+         */
+        static Object combine(final Object[] items)
+        {
+            for (int i = 0; i < items.length; i++)
+                items[i] = MenpIdSet.export(items[i]);
+            final Object left = items[0];
+            final int rights = items.length - 1;
+            if (left instanceof ArrayList)
+            {
+                final ArrayList<Object> lefts = new ArrayList<Object>((ArrayList<?>)left);
+                if (lefts.size() != rights)
+                    return Boolean.FALSE;
+                for (int i = 1; i <= rights; i++)
+                    if (lefts.remove(items[i]) == false)
+                        return Boolean.FALSE;
+                return Boolean.TRUE;
+            }
+            return Boolean.valueOf((rights == 1) && (left == null ? items[1] == null : left.equals(items[1])));
+        }
+    }
+    
+    
+    /**
+     * Or and union, {@code |}
+     */
+    static final class Union extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  items  The items
+         */
+        Union(final MenpNode[] items)
+        {
+            this.items = items;
+        }
+        
+        /**
+         * The items
+         */
+        final MenpNode[] items;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.items;
+        }
+        
+        /**
+         * The sets of the literal items, for the compiled menu they were last used with
+         */
+        private volatile MenpIdSet.Literals literals = null;
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return combine(context.model, evalAll(this.items, context));
+        }
+        
+        /**
+         * Combines the evaluated items
+         *
+         * @param   model  The compiled menu, {@code null} if unknown
+         * @param   items  The evaluated items
+         * @return         The node's value
+         */
+        Object combine(final MenuModel model, final Object[] items)
+        {
+            final MenpIdSet.Literals literals = MenpIdSet.Literals.get(this.literals, model, this.items);
+            this.literals = literals;
+            return combine(model, items, literals.sets);
+        }
+        
+        /**
+         * Combines the evaluated items
+         *
+         * @param   model     The compiled menu, {@code null} if unknown
+         * @param   items     The evaluated items
+         * @param   literals  The sets of the literal items, used in place of the evaluated items, {@code null} if none
+         * @return            The node's value
+         */
+        static Object combine(final MenuModel model, final Object[] items, final MenpIdSet[] literals)
+        {
+            Boolean bool = null;
+            final MenpIdSet set = new MenpIdSet(model);
+            for (int i = 0; i < items.length; i++)
+            {
+                final Object item = (literals == null) || (literals[i] == null) ? items[i] : literals[i];
+                if (item instanceof Boolean)
+                    bool = bool == null ? (Boolean)item : Boolean.valueOf(bool.booleanValue() | ((Boolean)item).booleanValue());
+                else
+                    set.addAll(item);
+            }
+            set.setBoolean(bool);
+            return set.value();
+        }
+    }
+    
+    
+    /**
+     * And and intersection, {@code &}
+     */
+    static final class Intersection extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  items  The items
+         */
+        Intersection(final MenpNode[] items)
+        {
+            this.items = items;
+        }
+        
+        /**
+         * The items
+         */
+        final MenpNode[] items;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.items;
+        }
+        
+        /**
+         * The sets of the literal items, for the compiled menu they were last used with
+         */
+        private volatile MenpIdSet.Literals literals = null;
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return combine(context.model, evalAll(this.items, context));
+        }
+        
+        /**
+         * Combines the evaluated items
+         *
+         * @param   model  The compiled menu, {@code null} if unknown
+         * @param   items  The evaluated items
+         * @return         The node's value
+         */
+        Object combine(final MenuModel model, final Object[] items)
+        {
+            final MenpIdSet.Literals literals = MenpIdSet.Literals.get(this.literals, model, this.items);
+            this.literals = literals;
+            return combine(model, items, literals.sets);
+        }
+        
+        /**
+         * Combines the evaluated items
+         *
+         * @param   model     The compiled menu, {@code null} if unknown
+         * @param   items     The evaluated items
+         * @param   literals  The sets of the literal items, used in place of the evaluated items, {@code null} if none
+         * @return            The node's value
+         */
+        static Object combine(final MenuModel model, final Object[] items, final MenpIdSet[] literals)
+        {
+            Boolean bool = null;
+            boolean first = true, empty = false;
+            final MenpIdSet set = new MenpIdSet(model);
+            for (int i = 0; i < items.length; i++)
+            {
+                final Object item = (literals == null) || (literals[i] == null) ? items[i] : literals[i];
+                if (item instanceof Boolean)
+                    bool = bool == null ? (Boolean)item : Boolean.valueOf(bool.booleanValue() & ((Boolean)item).booleanValue());
+                else if (first)
+                    set.addAll(item);
+                else if (MenpIdSet.isList(item))
+                    set.retainAll(item);
+                else
+                {
+                    final int index = set.find(item);
+                    if (set.contains(index) == false)
+                        empty = true;
+                    else
+                    {
+                        set.clear();
+                        set.add(index);
+                    }
+                }
+                first = false;
+            }
+            if (empty)
+                set.clear();
+            set.setBoolean(bool);
+            return set.value();
+        }
+    }
+    
+    
+    /**
+     * Parity, {@code ^}
+     */
+    static final class Parity extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  items  The items
+         */
+        Parity(final MenpNode[] items)
+        {
+            this.items = items;
+        }
+        
+        /**
+         * The items
+         */
+        final MenpNode[] items;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.items;
+        }
+        
+        /**
+         * The sets of the literal items, for the compiled menu they were last used with
+         */
+        private volatile MenpIdSet.Literals literals = null;
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return combine(context.model, evalAll(this.items, context));
+        }
+        
+        /**
+         * Combines the evaluated items
+         *
+         * @param   model  The compiled menu, {@code null} if unknown
+         * @param   items  The evaluated items
+         * @return         The node's value
+         */
+        Object combine(final MenuModel model, final Object[] items)
+        {
+            final MenpIdSet.Literals literals = MenpIdSet.Literals.get(this.literals, model, this.items);
+            this.literals = literals;
+            return combine(model, items, literals.sets);
+        }
+        
+        /**
+         * Combines the evaluated items
+         *
+         * @param   model     The compiled menu, {@code null} if unknown
+         * @param   items     The evaluated items
+         * @param   literals  The sets of the literal items, used in place of the evaluated items, {@code null} if none
+         * @return            The node's value
+         */
+        static Object combine(final MenuModel model, final Object[] items, final MenpIdSet[] literals)
+        {
+            Boolean bool = null;
+            final MenpIdSet seen = new MenpIdSet(model);
+            final BitSet odd = new BitSet();
+            for (int i = 0; i < items.length; i++)
+            {
+                final Object item = (literals == null) || (literals[i] == null) ? items[i] : literals[i];
+                if (item instanceof Boolean)
+                    bool = bool == null ? (Boolean)item : Boolean.valueOf(bool.booleanValue() ^ ((Boolean)item).booleanValue());
+                else if (item instanceof MenpIdSet)
+                    for (int j = 0, n = ((MenpIdSet)item).length(); j < n; j++)
+                        toggle(seen.translate((MenpIdSet)item, j), seen, odd);
+                else if (item instanceof ArrayList)
+                    for (final Object element : (ArrayList<?>)item)
+                        toggle(seen.index(element), seen, odd);
+                else
+                    toggle(seen.index(item), seen, odd);
+            }
+            seen.retainAll(odd);
+            seen.setBoolean(bool);
+            return seen.value();
+        }
+        
+        /**
+         * Counts an occurrence of an item
+         *
+         * @param  index  The item's index
+         * @param  seen   The items that have occurred, in order of first occurrence
+         * @param  odd    The indexes of the items that have occurred an odd number of times
+         */
+        private static void toggle(final int index, final MenpIdSet seen, final BitSet odd)
+        {
+            seen.add(index);
+            odd.flip(index);
+        }
+    }
+    
+    
+    /**
+     * If, {@code ,}
+     */
+    static final class If extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  condition  The condition
+         * @param  then       The value if the condition is true, {@code null} if none
+         * @param  otherwise  The value if the condition is not true, {@code null} if none
+         */
+        If(final MenpNode condition, final MenpNode then, final MenpNode otherwise)
+        {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+        
+        /**
+         * The condition
+         */
+        final MenpNode condition;
+        
+        /**
+         * The value if the condition is true, {@code null} if none
+         */
+        final MenpNode then;
+        
+        /**
+         * The value if the condition is not true, {@code null} if none
+         */
+        final MenpNode otherwise;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            MenpNode[] rc = { this.condition };
+            if (this.then != null)
+                rc = concat(rc, this.then);
+            if (this.otherwise != null)
+                rc = concat(rc, this.otherwise);
+            return rc;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            final MenpNode branch = Boolean.TRUE.equals(this.condition.eval(context)) ? this.then : this.otherwise;
+            return branch == null ? null : branch.eval(context);
+        }
+    }
+    
+    
+    /**
+     * Assign, {@code :}
+     */
+    static final class Assign extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  variable  The variable
+         * @param  value     The value
+         */
+        Assign(final Variable variable, final MenpNode value)
+        {
+            this.variable = variable;
+            this.value = value;
+        }
+        
+        /**
+         * The variable
+         */
+        final Variable variable;
+        
+        /**
+         * The value
+         */
+        final MenpNode value;
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return this.variable.set(context, this.value.eval(context));
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return new MenpNode[] { this.value };
+        }
+    }
+    
+    
+    /**
+     * Set, {@code !}
+     */
+    static final class Mutate extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  setting      The setting, {@link #UNKNOWN} if an accelerator
+         * @param  accelerator  The accelerator to set, {@code null} if not setting an accelerator
+         * @param  items        The items
+         */
+        Mutate(final int setting, final KeyStroke accelerator, final MenpNode[] items)
+        {
+            this.setting = setting;
+            this.accelerator = accelerator;
+            this.items = items;
+        }
+        
+        /**
+         * The setting, {@link #UNKNOWN} if an accelerator
+         */
+        final int setting;
+        
+        /**
+         * The accelerator to set, {@code null} if not setting an accelerator
+         */
+        final KeyStroke accelerator;
+        
+        /**
+         * The items
+         */
+        final MenpNode[] items;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.items;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return apply(context, evalAll(this.items, context));
+        }
+        
+        /**
+         * Applies the setting to the evaluated items
+         *
+         * @param   context  The invocation the node is evaluated in
+         * @param   items    The evaluated items
+         * @return           The node's value
+         */
+        Object apply(final Context context, final Object[] items)
+        {
+            for (final Object item : items)
+                if (MenpIdSet.isList(item))
+                    for (final Object element : (ArrayList<?>)MenpIdSet.export(item))
+                        apply(context, element);
+                else
+                    apply(context, item);
+            return null;
+        }
+        
+        /**
+         * Applies the setting to an item
+         *
+         * @param  context  The invocation the node is evaluated in
+         * @param  id       The item's ID, ignored unless a {@link String}
+         */
+        private void apply(final Context context, final Object id)
+        {
+            final Component component = component(context, id);
+            if (component == null)
+                return;
+            
+            if (this.accelerator != null)
+            {
+                if (component instanceof JMenuItem)
+                    AcceleratorRegistry.getShared().remap((JMenuItem)component, (String)id, this.accelerator);
+                return;
+            }
+            
+            switch (this.setting)
+            {
+                case HIDDEN:    component.setVisible(false);  break;
+                case VISIBLE:   component.setVisible(true);   break;
+                case DISABLED:  component.setEnabled(false);  break;
+                case ENABLED:   component.setEnabled(true);   break;
+                
+                case SELECTED:
+                case UNSELECTED:
+                    if (component instanceof AbstractButton)
+                        ((AbstractButton)component).setSelected(this.setting == SELECTED);
+                    break;
+            }
+        }
+    }
+    
+    
+    /**
+     * Query any {@code ?}, query all {@code ??} and query parity {@code ???}
+     */
+    static final class Query extends MenpNode
+    {
+        /**
+         * Constructor
+         *
+         * @param  mode     The number of question marks
+         * @param  setting  The setting
+         * @param  items    The items
+         */
+        Query(final int mode, final int setting, final MenpNode[] items)
+        {
+            this.mode = mode;
+            this.setting = setting;
+            this.items = items;
+        }
+        
+        /**
+         * Query any, the number of question marks
+         */
+        static final int ANY = 1;
+        
+        /**
+         * Query all, the number of question marks
+         */
+        static final int ALL = 2;
+        
+        /**
+         * Query parity, the number of question marks
+         */
+        static final int PARITY = 3;
+        
+        /**
+         * The number of question marks
+         */
+        final int mode;
+        
+        /**
+         * The setting
+         */
+        final int setting;
+        
+        /**
+         * The items
+         */
+        final MenpNode[] items;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        MenpNode[] children()
+        {
+            return this.items;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        Object eval(final Context context)
+        {
+            return answer(context, evalAll(this.items, context));
+        }
+        
+        /**
+         * Queries the setting on the evaluated items
+         *
+         * @param   context  The invocation the node is evaluated in
+         * @param   items    The evaluated items
+         * @return           The node's value
+         */
+        Object answer(final Context context, final Object[] items)
+        {
+            int count = 0;
+            for (final Object item : items)
+            {
+                if (MenpIdSet.isList(item))
+                {
+                    for (final Object element : (ArrayList<?>)MenpIdSet.export(item))
+                        if ((count = count(context, element, count)) < 0)
+                            return Boolean.valueOf(this.mode == ANY);
+                }
+                else if ((count = count(context, item, count)) < 0)
+                    return Boolean.valueOf(this.mode == ANY);
+            }
+            return Boolean.valueOf(this.mode == PARITY ? (count & 1) == 1 : this.mode == ALL);
+        }
+        
+        /**
+         * Queries the setting on an item and counts the item if the setting is set
+         *
+         * @param   context  The invocation the node is evaluated in
+         * @param   id       The item's ID, ignored unless a {@link String}
+         * @param   count    The number of items the setting is set on so far
+         * @return           The number of items the setting is set on, -1 if the answer is already known
+         */
+        private int count(final Context context, final Object id, final int count)
+        {
+            final Component component = component(context, id);
+            if (component == null)
+                return count;
+            
+            final boolean set;
+            switch (this.setting)
+            {
+                case HIDDEN:      set = component.isVisible() == false;  break;
+                case VISIBLE:     set = component.isVisible();           break;
+                case DISABLED:    set = component.isEnabled() == false;  break;
+                case ENABLED:     set = component.isEnabled();           break;
+                case SELECTED:    set = (component instanceof AbstractButton) &&  ((AbstractButton)component).isSelected();  break;
+                case UNSELECTED:  set = (component instanceof AbstractButton) && !((AbstractButton)component).isSelected();  break;
+                default:          set = false;                           break;
+            }
+            
+            if (set ? this.mode == ANY : this.mode == ALL)
+                return -1;
+            return set ? count + 1 : count;
+        }
+    }
+    
+    
+    
+    /**
+     * Evaluates nodes
+     *
+     * @param   nodes    The nodes
+     * @param   context  The invocation the nodes are evaluated in
+     * @return           The nodes' values
+     */
+    static Object[] evalAll(final MenpNode[] nodes, final Context context)
+    {
+        final Object[] rc = new Object[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            rc[i] = nodes[i].eval(context);
+        return rc;
+    }
+    
+    /**
+     * Appends a node to an array of nodes
+     *
+     * @param   nodes  The nodes
+     * @param   node   The node to append
+     * @return         The nodes followed by the node
+     */
+    static MenpNode[] concat(final MenpNode[] nodes, final MenpNode node)
+    {
+        final MenpNode[] rc = Arrays.copyOf(nodes, nodes.length + 1);
+        rc[nodes.length] = node;
+        return rc;
+    }
+    
+    /**
+     * Gets the value of a list, the element if the list has exactly one element
+     *
+     * @param   list  The list
+     * @return        The list or its only element
+     */
+    static Object unwrap(final ArrayList<Object> list)
+    {
+        return list.size() == 1 ? list.get(0) : list;
+    }
+    
+    /**
+     * Gets the live menu item with an ID
+     *
+     * @param   context  The invocation
+     * @param   id       The item's ID, ignored unless a {@link String}
+     * @return           The item, {@code null} if none
+     */
+    static Component component(final Context context, final Object id)
+    {
+        if ((id instanceof String) == false)
+            return null;
+        final WeakReference<Component> reference = context.menuItems.get((String)id);
+        return reference == null ? null : reference.get();
+    }
+    
+}
+
+
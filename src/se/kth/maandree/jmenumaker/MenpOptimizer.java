@@ -0,0 +1,293 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import java.util.*;
+
+
+/**
+ * Optimiser for parsed Menp methods.
+ * <p>
+ * Instructions whose items are all literals, other than calls, returns,
+ * sets and queries, are folded into literals. Branches of ifs whose
+ * condition is a literal are removed, and so are statements that are
+ * only literals or variables. Calls to methods that only forward their
+ * parameters to another method are replaced by calls to that method.
+ * Each change is recorded, with the name of the method it was made in.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+final class MenpOptimizer
+{
+    /**
+     * Constructor
+     *
+     * @param  bodies  The methods' instructions, by entry point
+     * @param  names   The methods' names, by entry point
+     */
+    MenpOptimizer(final MenpNode[] bodies, final String[] names)
+    {
+        this.bodies = bodies;
+        this.names = names;
+        this.forwards = new MenpNode.Call[bodies.length];
+        this.returns = new boolean[bodies.length];
+    }
+    
+    
+    
+    /**
+     * The methods' instructions, by entry point
+     */
+    private final MenpNode[] bodies;
+    
+    /**
+     * The methods' names, by entry point
+     */
+    private final String[] names;
+    
+    /**
+     * The call each method forwards to, by entry point, {@code null} elements for methods that do not only forward
+     */
+    private final MenpNode.Call[] forwards;
+    
+    /**
+     * Whether each forwarding method returns the value of the call it forwards to, by entry point
+     */
+    private final boolean[] returns;
+    
+    /**
+     * The entry point of the method being optimised
+     */
+    private int entry;
+    
+    /**
+     * Descriptions of the changes that have been made, in the order they were made
+     */
+    final ArrayList<String> changes = new ArrayList<String>();
+    
+    
+    
+    /**
+     * Optimises all methods, replacing the elements of the array of the methods' instructions
+     */
+    void optimize()
+    {
+        for (this.entry = 0; this.entry < this.bodies.length; this.entry++)
+            this.bodies[this.entry] = rewrite(this.bodies[this.entry], true, false);
+        
+        for (int entry = 0; entry < this.bodies.length; entry++)
+        {
+            MenpNode body = this.bodies[entry];
+            if ((body instanceof MenpNode.Return) && (((MenpNode.Return)body).values.length == 1))
+            {
+                body = ((MenpNode.Return)body).values[0];
+                this.returns[entry] = true;
+            }
+            if ((body instanceof MenpNode.Call) && isForwarding((MenpNode.Call)body) && (((MenpNode.Call)body).entry != entry))
+                this.forwards[entry] = (MenpNode.Call)body;
+        }
+        
+        for (this.entry = 0; this.entry < this.bodies.length; this.entry++)
+            this.bodies[this.entry] = rewrite(this.bodies[this.entry], true, true);
+    }
+    
+    /**
+     * Records a change to the method being optimised
+     *
+     * @param  change  Description of the change
+     */
+    private void record(final String change)
+    {
+        this.changes.add(change + " in method " + this.names[this.entry]);
+    }
+    
+    /**
+     * Checks whether a call only passes on the parameters of the method it is in, in order
+     *
+     * @param   call  The call
+     * @return        Whether the call's arguments are {@code $0}, {@code $1}, and so on
+     */
+    private static boolean isForwarding(final MenpNode.Call call)
+    {
+        for (int i = 0; i < call.arguments.length; i++)
+            if (((call.arguments[i] instanceof MenpNode.Parameter) == false) || (((MenpNode.Parameter)call.arguments[i]).index != i))
+                return false;
+        return call.entry >= 0;
+    }
+    
+    /**
+     * Checks whether a node is a literal, variable or parameter, that is, whether evaluating it has no effects
+     *
+     * @param   node  The node
+     * @return        Whether the node has no effects
+     */
+    private static boolean isPure(final MenpNode node)
+    {
+        return (node instanceof MenpNode.Literal) || (node instanceof MenpNode.Variable)
+            || (node instanceof MenpNode.Parameter) || (node instanceof MenpNode.Parameters);
+    }
+    
+    
+    
+    /**
+     * Optimises a node
+     *
+     * @param   node       The node
+     * @param   statement  Whether the node's value is not used
+     * @param   inline     Whether to inline calls to forwarding methods
+     * @return             The optimised node
+     */
+    private MenpNode rewrite(final MenpNode node, final boolean statement, final boolean inline)
+    {
+        if (node instanceof MenpNode.Block)
+        {
+            final MenpNode.Block block = (MenpNode.Block)node;
+            final ArrayList<MenpNode> statements = new ArrayList<MenpNode>();
+            for (final MenpNode child : block.statements)
+            {
+                final MenpNode rc = rewrite(child, true, inline);
+                if (isPure(rc))
+                    record("statement without effects removed");
+                else
+                    statements.add(rc);
+            }
+            final MenpNode last = block.last == null ? null : rewrite(block.last, statement, inline);
+            if (statements.isEmpty())
+                return last == null ? new MenpNode.Literal(null) : last;
+            return new MenpNode.Block(statements.toArray(new MenpNode[statements.size()]), last);
+        }
+        
+        if (node instanceof MenpNode.If)
+        {
+            final MenpNode.If branch = (MenpNode.If)node;
+            final MenpNode condition = rewrite(branch.condition, false, inline);
+            final MenpNode then      = branch.then      == null ? null : rewrite(branch.then,      statement, inline);
+            final MenpNode otherwise = branch.otherwise == null ? null : rewrite(branch.otherwise, statement, inline);
+            if ((condition instanceof MenpNode.Literal) == false)
+                return new MenpNode.If(condition, then, otherwise);
+            
+            final boolean taken = Boolean.TRUE.equals(((MenpNode.Literal)condition).value);
+            record("`,` with constant condition reduced to its " + (taken ? "then" : "else") + " branch");
+            final MenpNode kept = taken ? then : otherwise;
+            return kept == null ? new MenpNode.Literal(null) : kept;
+        }
+        
+        if (node instanceof MenpNode.Assign)
+            return new MenpNode.Assign(((MenpNode.Assign)node).variable, rewrite(((MenpNode.Assign)node).value, false, inline));
+        if (node instanceof MenpNode.Return)
+            return new MenpNode.Return(rewrite(((MenpNode.Return)node).values, inline));
+        if (node instanceof MenpNode.Mutate)
+        {
+            final MenpNode.Mutate mutate = (MenpNode.Mutate)node;
+            return new MenpNode.Mutate(mutate.setting, mutate.accelerator, rewrite(mutate.items, inline));
+        }
+        if (node instanceof MenpNode.Query)
+        {
+            final MenpNode.Query query = (MenpNode.Query)node;
+            return new MenpNode.Query(query.mode, query.setting, rewrite(query.items, inline));
+        }
+        
+        if (node instanceof MenpNode.Call)
+        {
+            MenpNode.Call call = (MenpNode.Call)node;
+            call = new MenpNode.Call(call.method, rewrite(call.arguments, inline), call.entry);
+            if (inline)
+                for (int hops = 0; hops < this.bodies.length; hops++)
+                {
+                    final MenpNode.Call forward = call.entry < 0 ? null : this.forwards[call.entry];
+                    if ((forward == null) || ((statement || this.returns[call.entry]) == false))
+                        break;
+                    
+                    //Arguments the forwarding method does not pass on are dropped, they must have no effects
+                    boolean dropped = true;
+                    for (int i = forward.arguments.length; i < call.arguments.length; i++)
+                        dropped &= isPure(call.arguments[i]);
+                    if (dropped == false)
+                        break;
+                    
+                    final MenpNode[] arguments = new MenpNode[forward.arguments.length];
+                    for (int i = 0; i < arguments.length; i++)
+                        arguments[i] = i < call.arguments.length ? call.arguments[i] : new MenpNode.Literal(null);
+                    record("`>" + call.method + "` inlined to `>" + forward.method + "`");
+                    call = new MenpNode.Call(forward.method, arguments, forward.entry);
+                }
+            return call;
+        }
+        
+        final MenpNode[] items;
+        if      (node instanceof MenpNode.Expand)        items = ((MenpNode.Expand)node).items;
+        else if (node instanceof MenpNode.Not)           items = ((MenpNode.Not)node).items;
+        else if (node instanceof MenpNode.Same)          items = ((MenpNode.Same)node).items;
+        else if (node instanceof MenpNode.Union)         items = ((MenpNode.Union)node).items;
+        else if (node instanceof MenpNode.Intersection)  items = ((MenpNode.Intersection)node).items;
+        else if (node instanceof MenpNode.Parity)        items = ((MenpNode.Parity)node).items;
+        else
+            return node;
+        
+        final MenpNode[] rewritten = rewrite(items, inline);
+        final Object[] values = new Object[rewritten.length];
+        for (int i = 0; i < rewritten.length; i++)
+            if (rewritten[i] instanceof MenpNode.Literal)
+                values[i] = ((MenpNode.Literal)rewritten[i]).value;
+            else
+            {
+                if      (node instanceof MenpNode.Expand)        return new MenpNode.Expand(rewritten);
+                else if (node instanceof MenpNode.Not)           return new MenpNode.Not(rewritten);
+                else if (node instanceof MenpNode.Same)          return new MenpNode.Same(rewritten);
+                else if (node instanceof MenpNode.Union)         return new MenpNode.Union(rewritten);
+                else if (node instanceof MenpNode.Intersection)  return new MenpNode.Intersection(rewritten);
+                else                                             return new MenpNode.Parity(rewritten);
+            }
+        
+        if      (node instanceof MenpNode.Expand)        record("`.` folded into a literal");
+        else if (node instanceof MenpNode.Not)           record("`*` folded into a literal");
+        else if (node instanceof MenpNode.Same)          record("`=` folded into a literal");
+        else if (node instanceof MenpNode.Union)         record("`|` folded into a literal");
+        else if (node instanceof MenpNode.Intersection)  record("`&` folded into a literal");
+        else                                             record("`^` folded into a literal");
+        
+        if      (node instanceof MenpNode.Expand)        return new MenpNode.Literal(MenpNode.Expand.combine(values));
+        else if (node instanceof MenpNode.Not)           return new MenpNode.Literal(MenpNode.Not.combine(values));
+        else if (node instanceof MenpNode.Same)          return new MenpNode.Literal(MenpNode.Same.combine(values));
+        
+        //Folded sets are not tied to a compiled menu, their IDs are looked up once per menu when they are used
+        if      (node instanceof MenpNode.Union)         return new MenpNode.Literal(MenpIdSet.export(MenpNode.Union.combine(null, values, null)));
+        else if (node instanceof MenpNode.Intersection)  return new MenpNode.Literal(MenpIdSet.export(MenpNode.Intersection.combine(null, values, null)));
+        else                                             return new MenpNode.Literal(MenpIdSet.export(MenpNode.Parity.combine(null, values, null)));
+    }
+    
+    /**
+     * Optimises items, whose values are used
+     *
+     * @param   nodes   The items
+     * @param   inline  Whether to inline calls to forwarding methods
+     * @return          The optimised items
+     */
+    private MenpNode[] rewrite(final MenpNode[] nodes, final boolean inline)
+    {
+        final MenpNode[] rc = new MenpNode[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            rc[i] = rewrite(nodes[i], false, inline);
+        return rc;
+    }
+    
+}
+
+
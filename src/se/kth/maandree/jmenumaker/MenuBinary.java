@@ -0,0 +1,365 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+
+/**
+ * Compiled binary menu markup; a string table followed by pre-order node records,
+ * with keystrokes and mnemonics already resolved.
+ * <p>
+ *   The text markup is still the source format, a compiled file is stored next to
+ *   it with a {@code c} appended to the file name and is only used as long as none
+ *   of the files it was compiled from have been modified. Compile from the command
+ *   line with {@code java -cp JMenuMaker.jar se.kth.maandree.jmenumaker.MenuBinary FILE...}
+ * </p>
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class MenuBinary
+{
+    /**
+     * Hidden constructor
+     */
+    private MenuBinary()
+    {
+        //Nullify default constructor
+    }
+    
+    
+    
+    /**
+     * File magic, "JMMC"
+     */
+    private static final int MAGIC = 0x4A4D4D43;
+    
+    /**
+     * Format version
+     */
+    private static final int VERSION = 3;
+    
+    
+    
+    /**
+     * String table under construction, maps each distinct string to its index
+     */
+    static final class StringTable
+    {
+        /**
+         * Map from strings to indices
+         */
+        private final HashMap<String, Integer> indices = new HashMap<String, Integer>();
+        
+        /**
+         * The strings, by index
+         */
+        private final ArrayList<String> strings = new ArrayList<String>();
+        
+        /**
+         * Gets, and may add, the index of a string
+         *
+         * @param   string  The string, may be {@code null}
+         * @return          The index of the string, -1 for {@code null}
+         */
+        int get(final String string)
+        {
+            if (string == null)
+                return -1;
+            Integer index = this.indices.get(string);
+            if (index == null)
+            {
+                this.indices.put(string, index = Integer.valueOf(this.strings.size()));
+                this.strings.add(string);
+            }
+            return index.intValue();
+        }
+    }
+    
+    
+    
+    /**
+     * Compiles menu markup files into their binary form
+     *
+     * @param  args  The menu markup files to compile
+     *
+     * @throws  IOException  If a file cannot be read or written
+     */
+    public static void main(final String... args) throws IOException
+    {
+        if (args.length == 0)
+        {
+            System.err.println("Usage: java se.kth.maandree.jmenumaker.MenuBinary FILE...");
+            System.exit(1);
+        }
+        
+        JMenuMaker.errOutput = false;
+        for (final String file : args)
+        {
+            final String binary = getBinaryFile(file);
+            write(MenuModel.compile(file), binary);
+            System.err.println(file + " -> " + binary);
+        }
+    }
+    
+    
+    
+    /**
+     * Gets the file the binary form of a menu markup file is stored in
+     *
+     * @param   file  The menu markup file
+     * @return        The compiled file
+     */
+    public static String getBinaryFile(final String file)
+    {
+        return file + 'c';
+    }
+    
+    /**
+     * Loads a menu, from its compiled form if it is up to date, otherwise from the menu markup
+     *
+     * @param   file  The menu markup file
+     * @return        The menu model
+     *
+     * @throws  IOException  If the configuration file cannot be read
+     */
+    public static MenuModel load(final String file) throws IOException
+    {
+        final File binary = new File(getBinaryFile(file));
+        if (binary.isFile())
+        {
+            final MenuModel model = read(binary.getPath());
+            if (model != null)
+                return model;
+        }
+        return MenuModel.compile(file);
+    }
+    
+    
+    
+    /**
+     * Writes a menu model in the compiled binary format
+     *
+     * @param  model  The model
+     * @param  file   The output file
+     *
+     * @throws  IOException  If the file cannot be written
+     */
+    public static void write(final MenuModel model, final String file) throws IOException
+    {
+        final StringTable strings = new StringTable();
+        final ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+        final DataOutputStream nodes = new DataOutputStream(nodeBytes);
+        
+        final MenuSource[] sources = model.getSources();
+        for (final MenuSource source : sources)
+            strings.get(source.getFile());
+        
+        writeNode(model.getRoot(), nodes, strings);
+        nodes.flush();
+        
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            
+            out.writeInt(sources.length);
+            for (final MenuSource source : sources)
+            {
+                out.writeInt(strings.get(source.getFile()));
+                out.writeLong(source.getLastModified());
+                out.writeLong(source.getSize());
+            }
+            
+            out.writeInt(strings.strings.size());
+            for (final String string : strings.strings)
+            {
+                final byte[] bs = string.getBytes("UTF-8");
+                out.writeInt(bs.length);
+                out.write(bs);
+            }
+            
+            out.writeInt(strings.get(model.getFile()));
+            out.writeInt(model.getGroupCount());
+            nodeBytes.writeTo(out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+    
+    /**
+     * Writes a node and its children
+     *
+     * @param  node     The node
+     * @param  out      The output stream
+     * @param  strings  The string table
+     *
+     * @throws  IOException  On I/O exception
+     */
+    private static void writeNode(final MenuNode node, final DataOutputStream out, final StringTable strings) throws IOException
+    {
+        out.writeByte(node.getKind().ordinal());
+        out.writeByte((node.isSelected() ? 1 : 0) | (node.isDisabled() ? 2 : 0) | (node.isHidden() ? 4 : 0));
+        out.writeInt(strings.get(node.getCaption()));
+        out.writeInt(strings.get(node.getTag()));
+        out.writeInt(node.getGroup());
+        out.writeInt(strings.get(node.getFile()));
+        out.writeInt(node.getLine());
+        node.getSettings().write(out, strings);
+        
+        final int n = node.getChildCount();
+        out.writeInt(n);
+        for (int i = 0; i < n; i++)
+            writeNode(node.getChild(i), out, strings);
+    }
+    
+    
+    
+    /**
+     * Reads a menu model in the compiled binary format, using a memory mapping of the file
+     *
+     * @param   file  The compiled file
+     * @return        The menu model, {@code null} if the file is not in the current format,
+     *                is truncated or corrupt, or any of its source files has been modified
+     *
+     * @throws  IOException  If the file cannot be read
+     */
+    public static MenuModel read(final String file) throws IOException
+    {
+        final ByteBuffer buffer;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            final FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            raf.close();
+        }
+        
+        try
+        {
+            if ((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION))
+                return null;
+            
+            final int sourceCount = length(buffer, 20);
+            final int[] sourceFiles = new int[sourceCount];
+            final long[] sourceModified = new long[sourceCount];
+            final long[] sourceSizes = new long[sourceCount];
+            for (int i = 0; i < sourceCount; i++)
+            {
+                sourceFiles[i] = buffer.getInt();
+                sourceModified[i] = buffer.getLong();
+                sourceSizes[i] = buffer.getLong();
+            }
+            
+            final String[] strings = new String[length(buffer, 4)];
+            byte[] bs = new byte[64];
+            for (int i = 0; i < strings.length; i++)
+            {
+                final int len = length(buffer, 1);
+                if (bs.length < len)
+                    bs = new byte[len];
+                buffer.get(bs, 0, len);
+                strings[i] = new String(bs, 0, len, "UTF-8");
+            }
+            
+            final MenuSource[] sources = new MenuSource[sourceCount];
+            for (int i = 0; i < sourceCount; i++)
+                if ((sources[i] = new MenuSource(strings[sourceFiles[i]], sourceModified[i], sourceSizes[i])).isStale())
+                    return null;
+            
+            final String modelFile = strings[buffer.getInt()];
+            final int groups = buffer.getInt();
+            return new MenuModel(modelFile, readNode(buffer, strings), groups, sources);
+        }
+        catch (final RuntimeException err)
+        {
+            //Truncated or corrupt: underflow, or an out of range string index, node kind or length
+            return null;
+        }
+    }
+    
+    /**
+     * Reads a node and its children
+     *
+     * @param   buffer   The buffer to read from
+     * @param   strings  The string table
+     * @return           The node
+     */
+    private static MenuNode readNode(final ByteBuffer buffer, final String[] strings)
+    {
+        final MenuNode.Kind kind = MenuNode.Kind.values()[buffer.get()];
+        final int flags = buffer.get();
+        final String caption = string(strings, buffer.getInt());
+        final String tag = string(strings, buffer.getInt());
+        final int group = buffer.getInt();
+        final String file = string(strings, buffer.getInt());
+        final int line = buffer.getInt();
+        final MenuSettings settings = MenuSettings.read(buffer, strings);
+        
+        final int n = length(buffer, 1);
+        final MenuNode[] children = n == 0 ? MenuNode.NO_CHILDREN : new MenuNode[n];
+        for (int i = 0; i < n; i++)
+            children[i] = readNode(buffer, strings);
+        
+        return new MenuNode(kind, caption, tag, (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0,
+                            group, settings, file, line, children);
+    }
+    
+    /**
+     * Reads the number of elements in an array
+     *
+     * @param   buffer  The buffer to read from
+     * @param   size    The least number of bytes each element takes up in the buffer
+     * @return          The number of elements
+     *
+     * @throws  BufferUnderflowException  If the number is negative or the elements cannot fit in the rest of the buffer
+     */
+    static int length(final ByteBuffer buffer, final int size)
+    {
+        final int n = buffer.getInt();
+        if ((n < 0) || (n > buffer.remaining() / size))
+            throw new BufferUnderflowException();
+        return n;
+    }
+    
+    /**
+     * Looks up a string in a string table
+     *
+     * @param   strings  The string table
+     * @param   index    The index of the string, -1 for {@code null}
+     * @return           The string
+     */
+    static String string(final String[] strings, final int index)
+    {
+        return index < 0 ? null : strings[index];
+    }
+    
+}
+
+
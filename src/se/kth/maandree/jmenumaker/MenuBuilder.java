@@ -0,0 +1,1326 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import javax.swing.*;
+import javax.swing.event.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.ref.*;
+
+
+/**
+ * Builds the Swing components of a {@link MenuModel}, one instance per instantiation
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+final class MenuBuilder
+{
+    /**
+     * Constructor
+     *
+     * @param  model      The model to instantiate
+     * @param  prototype  The prototype with the model's resolved icons, {@code null} to load the icons
+     * @param  listener   Update listener for the menu items
+     * @param  menp       Menp instance for auto invocation
+     * @param  lazy       Whether to build the contents of submenus when they are first opened
+     */
+    MenuBuilder(final MenuModel model, final MenuPrototype prototype, final UpdateListener listener, final Menp menp, final boolean lazy)
+    {
+        this.model = model;
+        this.prototype = prototype;
+        this.listener = listener;
+        this.menp = menp;
+        this.lazy = lazy;
+        this.groups = new ButtonGroup[model.getGroupCount()];
+        this.menuItems = new IdMap();
+        this.handles = new MenuHandles(model, this.menuItems);
+    }
+    
+    
+    
+    /**
+     * A node whose children are being built in batches
+     */
+    private static final class Frame
+    {
+        /**
+         * Constructor
+         *
+         * @param  node       The node
+         * @param  component  The node's component
+         */
+        Frame(final MenuNode node, final JComponent component)
+        {
+            this.node = node;
+            this.component = component;
+        }
+        
+        /**
+         * The node
+         */
+        final MenuNode node;
+        
+        /**
+         * The node's component
+         */
+        final JComponent component;
+        
+        /**
+         * The index of the next child to build
+         */
+        int index = 0;
+    }
+    
+    
+    /**
+     * Map from IDs to items, that builds the submenu containing an item when the item is looked up
+     */
+    final class IdMap extends HashMap<String, WeakReference<Component>>
+    {
+        /**
+         * Desired by {@link java.io.Serializable}
+         */
+        private static final long serialVersionUID = 1;
+        
+        
+        
+        /**
+         * Gets the handles of the items
+         *
+         * @return  The handles of the items
+         */
+        MenuHandles getHandles()
+        {
+            return MenuBuilder.this.handles;
+        }
+        
+        /**
+         * Gets an item that has been built, without building any submenu
+         *
+         * @param   id  The item's ID
+         * @return      The item, {@code null} if it has not been built
+         */
+        WeakReference<Component> getBuilt(final String id)
+        {
+            return super.get(id);
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public WeakReference<Component> get(final Object key)
+        {
+            WeakReference<Component> rc = super.get(key);
+            JMenu owner;
+            while ((rc == null) && ((owner = MenuBuilder.this.pendingIds.get(key)) != null))
+            {
+                materialise(owner);
+                rc = super.get(key);
+            }
+            return rc;
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean containsKey(final Object key)
+        {
+            return super.containsKey(key) || MenuBuilder.this.pendingIds.containsKey(key);
+        }
+    }
+    
+    
+    /**
+     * Dispatch record of an item with an ID, everything a click or slider change
+     * needs is resolved when the item is built
+     */
+    private final class Dispatch implements ActionListener, ChangeListener
+    {
+        /**
+         * Constructor
+         *
+         * @param  id      The item's ID, starting with a NUL if the item reports inverted values
+         * @param  kind    The kind of the item
+         * @param  invoke  The Menp method to invoke on click, {@code null} if none
+         * @param  item    The item
+         */
+        Dispatch(final String id, final MenuNode.Kind kind, final String invoke, final JComponent item)
+        {
+            this.item = item;
+            this.parameters = new String[] { id };
+            this.inverted = id.startsWith("\0");
+            this.id = this.inverted ? id.substring(1) : id;
+            this.kind = kind;
+            setInvoke(invoke);
+        }
+        
+        /**
+         * The item
+         */
+        final JComponent item;
+        
+        /**
+         * The parameters of Menp invocations, the item's ID as written
+         */
+        final String[] parameters;
+        
+        /**
+         * The item's ID without the inversion mark
+         */
+        final String id;
+        
+        /**
+         * Whether the item reports inverted values
+         */
+        final boolean inverted;
+        
+        /**
+         * The kind of the item
+         */
+        final MenuNode.Kind kind;
+        
+        /**
+         * The Menp method to invoke on click, {@code null} if none
+         */
+        String invoke;
+        
+        /**
+         * The entry point of the Menp method, -1 if not resolved
+         */
+        int entry;
+        
+        /**
+         * The minimum number of milliseconds between the slider's value events, 0 if not coalesced
+         */
+        int coalesce = 0;
+        
+        /**
+         * Whether the slider's value is only reported when the user releases it
+         */
+        boolean onRelease = false;
+        
+        /**
+         * The time, in nanoseconds, the slider's value was last reported, 0 if never
+         */
+        long reported = 0;
+        
+        /**
+         * Timer reporting the latest value at the end of the interval, {@code null} until needed
+         */
+        javax.swing.Timer timer = null;
+        
+        
+        
+        /**
+         * Sets the Menp method to invoke on click
+         *
+         * @param  invoke  The Menp method, {@code null} if none
+         */
+        void setInvoke(final String invoke)
+        {
+            this.invoke = invoke;
+            this.entry = (invoke == null) || (MenuBuilder.this.menp == null) ? -1 : MenuBuilder.this.menp.resolve(invoke);
+        }
+        
+        /**
+         * Sets how the slider's value events are throttled
+         *
+         * @param  coalesce   The minimum number of milliseconds between the events, 0 if not coalesced
+         * @param  onRelease  Whether the value is only reported when the user releases the slider
+         */
+        void setThrottle(final int coalesce, final boolean onRelease)
+        {
+            this.coalesce = coalesce;
+            this.onRelease = onRelease;
+            if ((coalesce == 0) && (this.timer != null) && this.timer.isRunning())
+            {
+                this.timer.stop();
+                report();
+            }
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public void actionPerformed(final ActionEvent event)
+        {
+            final Menp menp = MenuBuilder.this.menp;
+            if ((menp != null) && (this.invoke != null))
+                if (this.entry >= 0)
+                    menp.invoke(this.entry, MenuBuilder.this.menuItems, (Object[])this.parameters);
+                else
+                    menp.invoke(this.invoke, MenuBuilder.this.menuItems, this.parameters);
+            
+            final UpdateListener listener = MenuBuilder.this.listener;
+            if (listener == null)
+                return;
+            
+            switch (this.kind)
+            {
+                case CHECK:
+                case RADIO:
+                    listener.valueUpdated(this.id, ((AbstractButton)(event.getSource())).isSelected() ^ this.inverted);
+                    break;
+                
+                default:
+                    listener.itemClicked(this.id);
+                    break;
+            }
+        }
+        
+        /**
+         * {@inheritDoc}
+         */
+        public void stateChanged(final ChangeEvent event)
+        {
+            if (this.onRelease && ((JSlider)(event.getSource())).getValueIsAdjusting())
+                return;
+            
+            if (this.coalesce == 0)
+            {
+                report();
+                return;
+            }
+            
+            if ((this.timer != null) && this.timer.isRunning())
+                return; //The timer reports the latest value
+            
+            final long wait = this.reported == 0 ? 0 : this.coalesce - (System.nanoTime() - this.reported) / 1000000L;
+            if (wait <= 0)
+                report();
+            else
+            {
+                if (this.timer == null)
+                {
+                    this.timer = new javax.swing.Timer(0, new ActionListener()
+                            {
+                                /**
+                                 * {@inheritDoc}
+                                 */
+                                public void actionPerformed(final ActionEvent event)
+                                {
+                                    Dispatch.this.report();
+                                }
+                            });
+                    this.timer.setRepeats(false);
+                }
+                this.timer.setInitialDelay((int)wait);
+                this.timer.start();
+            }
+        }
+        
+        /**
+         * Reports the slider's current value
+         */
+        void report()
+        {
+            this.reported = System.nanoTime();
+            final UpdateListener listener = MenuBuilder.this.listener;
+            if (listener != null)
+                listener.valueUpdated(this.parameters[0], ((JSlider)(this.item)).getValue());
+        }
+    }
+    
+    
+    /**
+     * Key binding for an accelerator of an item in a submenu that has not been built yet
+     */
+    private final class LazyAccelerator extends AbstractAction
+    {
+        /**
+         * Desired by {@link java.io.Serializable}
+         */
+        private static final long serialVersionUID = 1;
+        
+        
+        
+        /**
+         * The outermost unbuilt submenu containing the item
+         */
+        JMenu owner;
+        
+        /**
+         * The item, {@code null} until it has been built
+         */
+        JMenuItem item = null;
+        
+        
+        
+        /**
+         * {@inheritDoc}
+         */
+        public void actionPerformed(final ActionEvent event)
+        {
+            while ((this.item == null) && MenuBuilder.this.pendingMenus.containsKey(this.owner))
+                materialise(this.owner);
+            
+            if ((this.item != null) && this.item.isEnabled())
+                this.item.doClick(0);
+        }
+    }
+    
+    
+    
+    /**
+     * The model to instantiate
+     */
+    private MenuModel model;
+    
+    /**
+     * The prototype with the model's resolved icons, {@code null} to load the icons
+     */
+    private final MenuPrototype prototype;
+    
+    /**
+     * Update listener for the menu items
+     */
+    private final UpdateListener listener;
+    
+    /**
+     * Menp instance for auto invocation
+     */
+    private final Menp menp;
+    
+    /**
+     * Whether to build the contents of submenus when they are first opened
+     */
+    private final boolean lazy;
+    
+    /**
+     * The button groups, created on first use
+     */
+    private ButtonGroup[] groups;
+    
+    /**
+     * The menu bar
+     */
+    private final JMenuBar menu = new JMenuBar();
+    
+    /**
+     * The decorated window, the scope of the menu's accelerators in the {@link AcceleratorRegistry}
+     */
+    private Container window = null;
+    
+    /**
+     * Map from IDs to items
+     */
+    private final IdMap menuItems;
+    
+    /**
+     * The handles of the items with IDs
+     */
+    private final MenuHandles handles;
+    
+    /**
+     * The tags of the alive indicators
+     */
+    private final ArrayList<String> aliveTargets = new ArrayList<String>();
+    
+    /**
+     * The alive indicators
+     */
+    private final ArrayList<Component> aliveIndicators = new ArrayList<Component>();
+    
+    /**
+     * Map from unbuilt submenus to their nodes
+     */
+    private final HashMap<JMenu, MenuNode> pendingMenus = new HashMap<JMenu, MenuNode>();
+    
+    /**
+     * Map from the IDs of unbuilt items to the outermost unbuilt submenus containing them
+     */
+    private final HashMap<String, JMenu> pendingIds = new HashMap<String, JMenu>();
+    
+    /**
+     * Map from the accelerators of unbuilt items to their key bindings
+     */
+    private final HashMap<KeyStroke, LazyAccelerator> pendingAccelerators = new HashMap<KeyStroke, LazyAccelerator>();
+    
+    /**
+     * Map from nodes to the components added to their parents, {@code null} unless tracking for {@link #patch(MenuModel)}
+     */
+    private IdentityHashMap<MenuNode, JComponent> placed = null;
+    
+    /**
+     * Map from buttons to their attribute setting listeners, {@code null} unless tracking for {@link #patch(MenuModel)}
+     */
+    private IdentityHashMap<AbstractButton, ActionListener> attributeListeners = null;
+    
+    /**
+     * Listener that builds the contents of a submenu when it is first opened
+     */
+    private final MenuListener lazyListener = new MenuListener()
+            {
+                /**
+                 * {@inheritDoc}
+                 */
+                public void menuSelected(final MenuEvent event)
+                {
+                    materialise((JMenu)(event.getSource()));
+                }
+                
+                /**
+                 * {@inheritDoc}
+                 */
+                public void menuDeselected(final MenuEvent event)
+                {
+                    //Do nothing
+                }
+                
+                /**
+                 * {@inheritDoc}
+                 */
+                public void menuCanceled(final MenuEvent event)
+                {
+                    //Do nothing
+                }
+            };
+    
+    
+    
+    /**
+     * Makes the builder keep track of the components of the nodes, so that the menu bar can be patched
+     */
+    void track()
+    {
+        this.placed = new IdentityHashMap<MenuNode, JComponent>();
+        this.attributeListeners = new IdentityHashMap<AbstractButton, ActionListener>();
+    }
+    
+    /**
+     * Decorates the window
+     *
+     * @param   window  Windows do decorate, must be {@link JFrame}, {@link JDialog} or {@link JInternalFrame}
+     * @return          A {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    HashMap<String, WeakReference<Component>> build(final Container window)
+    {
+        attach(window);
+        buildChildren(this.model.getRoot(), this.menu);
+        return finish();
+    }
+    
+    /**
+     * Decorates the window on the event dispatch thread, building a bounded number of
+     * components per event so that the event dispatch thread is not blocked
+     *
+     * @param  window  Windows do decorate, must be {@link JFrame}, {@link JDialog} or {@link JInternalFrame}
+     * @param  batch   The maximum number of components to build per event
+     * @param  future  Completed with a {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    void buildLater(final Container window, final int batch, final CompletableFuture<HashMap<String, WeakReference<Component>>> future)
+    {
+        final ArrayList<Frame> stack = new ArrayList<Frame>();
+        stack.add(new Frame(this.model.getRoot(), this.menu));
+        
+        SwingUtilities.invokeLater(new Runnable()
+                {
+                    /**
+                     * Whether the menu bar has been added to the window
+                     */
+                    private boolean attached = false;
+                    
+                    /**
+                     * {@inheritDoc}
+                     */
+                    public void run()
+                    {
+                        try
+                        {
+                            if (this.attached == false)
+                            {
+                                attach(window);
+                                this.attached = true;
+                            }
+                            
+                            if (buildBatch(stack, batch))
+                                future.complete(finish());
+                            else
+                                SwingUtilities.invokeLater(this);
+                        }
+                        catch (final Throwable err)
+                        {
+                            future.completeExceptionally(err);
+                        }
+                    }
+                });
+    }
+    
+    /**
+     * Adds the menu bar to the window
+     *
+     * @param  window  Windows do decorate, must be {@link JFrame}, {@link JDialog} or {@link JInternalFrame}
+     */
+    private void attach(final Container window)
+    {
+        this.window = window;
+        if (window instanceof JFrame)
+            ((JFrame)window).setJMenuBar(this.menu);
+        else if (window instanceof JDialog)
+            ((JDialog)window).setJMenuBar(this.menu);
+        else if (window instanceof JInternalFrame)
+            ((JInternalFrame)window).setJMenuBar(this.menu);
+        else
+            throw new RuntimeException(window instanceof JWindow ? "JWindow:s can not have JMenuBar:s"
+                                                                 : "window is not JFrame, JDialog or JInternalFrame.");
+    }
+    
+    /**
+     * Finishes the menu bar once all components have been built
+     *
+     * @return  A {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    private HashMap<String, WeakReference<Component>> finish()
+    {
+        linkAliveIndicators();
+        JWeakSeparator.update(this.menu);
+        
+        if (this.menp != null)
+            this.menp.invoke("main", this.menuItems);
+        
+        return this.menuItems;
+    }
+    
+    /**
+     * Gives the tags their alive indicators
+     */
+    private void linkAliveIndicators()
+    {
+        for (int i = 0, n = this.aliveTargets.size(); i < n; i++)
+        {
+            final String aliveTarget = this.aliveTargets.get(i);
+            final Component aliveIndicator = this.aliveIndicators.get(i);
+            
+            JMenuTag.getInstance(aliveTarget).setAliveIndicator(aliveIndicator);
+        }
+        
+        this.aliveTargets.clear();
+        this.aliveIndicators.clear();
+    }
+    
+    /**
+     * Builds the children of a node
+     *
+     * @param  node    The node
+     * @param  parent  The node's component
+     */
+    private void buildChildren(final MenuNode node, final JComponent parent)
+    {
+        for (int i = 0, n = node.getChildCount(); i < n; i++)
+        {
+            final MenuNode child = node.getChild(i);
+            final JComponent component = buildNode(child, parent);
+            if (descend(child, component))
+                buildChildren(child, component);
+        }
+    }
+    
+    /**
+     * Builds components in pre-order until a number of components have been built
+     *
+     * @param   stack  The nodes whose children are being built, with the index of the next child
+     * @param   batch  The maximum number of components to build
+     * @return         Whether all components have been built
+     */
+    private boolean buildBatch(final ArrayList<Frame> stack, final int batch)
+    {
+        for (int built = 0; (built < batch) && (stack.isEmpty() == false);)
+        {
+            final Frame frame = stack.get(stack.size() - 1);
+            if (frame.index == frame.node.getChildCount())
+            {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            
+            final MenuNode child = frame.node.getChild(frame.index++);
+            final JComponent component = buildNode(child, frame.component);
+            if (descend(child, component))
+                stack.add(new Frame(child, component));
+            built++;
+        }
+        return stack.isEmpty();
+    }
+    
+    /**
+     * Checks whether the children of a node are to be built now, and defers them otherwise
+     *
+     * @param   node       The node
+     * @param   component  The node's component, {@code null} if none
+     * @return             Whether the node's children are to be built now
+     */
+    private boolean descend(final MenuNode node, final JComponent component)
+    {
+        if ((component == null) || (node.getChildCount() == 0))
+            return false;
+        
+        if (this.lazy && (component instanceof JMenu))
+        {
+            this.pendingMenus.put((JMenu)component, node);
+            ((JMenu)component).addMenuListener(this.lazyListener);
+            defer(node, (JMenu)component);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Registers the IDs and accelerators in an unbuilt submenu
+     *
+     * @param  node   The node whose descendants are unbuilt
+     * @param  owner  The outermost unbuilt submenu containing the node's descendants
+     */
+    private void defer(final MenuNode node, final JMenu owner)
+    {
+        for (int i = 0, n = node.getChildCount(); i < n; i++)
+        {
+            final MenuNode child = node.getChild(i);
+            if (child.hasComponent() == false)
+                continue;
+            
+            final MenuSettings settings = child.getSettings();
+            if (settings.getId() != null)
+                this.pendingIds.put(settings.getId(), owner);
+            
+            final KeyStroke accelerator = settings.getAccelerator();
+            if ((accelerator != null) && (child.getKind().isButton() || (child.getKind() == MenuNode.Kind.TAG)))
+            {
+                LazyAccelerator binding = this.pendingAccelerators.get(accelerator);
+                if (binding == null)
+                {
+                    this.pendingAccelerators.put(accelerator, binding = new LazyAccelerator());
+                    this.menu.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(accelerator, binding);
+                    this.menu.getActionMap().put(binding, binding);
+                }
+                binding.owner = owner;
+            }
+            
+            defer(child, owner);
+        }
+    }
+    
+    /**
+     * Builds the contents of an unbuilt submenu, submenus within it stay unbuilt
+     *
+     * @param  submenu  The submenu
+     */
+    private void materialise(final JMenu submenu)
+    {
+        final MenuNode node = this.pendingMenus.remove(submenu);
+        if (node == null)
+            return;
+        
+        submenu.removeMenuListener(this.lazyListener);
+        buildChildren(node, submenu);
+        linkAliveIndicators();
+        JWeakSeparator.update(this.menu);
+    }
+    
+    /**
+     * Builds the component of a node and adds it to its parent
+     *
+     * @param   node    The node
+     * @param   parent  The parent component
+     * @return          The node's component, {@code null} if none
+     */
+    private JComponent buildNode(final MenuNode node, final JComponent parent)
+    {
+        final MenuSettings settings = node.getSettings();
+        final JComponent menuItem;
+        
+        switch (node.getKind())
+        {
+            case SEPARATOR:
+                parent.add(menuItem = new JSeparator());
+                break;
+            
+            case WEAK_SEPARATOR:
+                parent.add(menuItem = new JWeakSeparator(this.menu));
+                break;
+            
+            case SPACER:
+                parent.add(menuItem = new JMenuSpacer());
+                break;
+            
+            case SLIDER:
+                parent.add(menuItem = new JSlider(settings.isVertical() ? JSlider.VERTICAL : JSlider.HORIZONTAL,
+                                                  settings.getMin(), settings.getMax(), settings.getValue()));
+                ((JSlider)menuItem).setExtent(settings.getExtent());
+                break;
+            
+            case TAG:
+            {
+                final JMenuTag item;
+                parent.add(item = JMenuTag.getInstance(node.getTag()));
+                if (this.placed != null)
+                    this.placed.put(node, item);
+                if (node.getCaption() == null)
+                    return null;
+                item.setEmptyIndicator(menuItem = new JMenuItem(node.getCaption()));
+                break;
+            }
+            
+            default:
+                switch (node.getKind())
+                {
+                    case MENU:   menuItem = new JMenu(node.getCaption());                                   break;
+                    case CHECK:  menuItem = new JCheckBoxMenuItem(node.getCaption(), node.isSelected());     break;
+                    case RADIO:  menuItem = new JRadioButtonMenuItem(node.getCaption(), node.isSelected());  break;
+                    default:     menuItem = new JMenuItem(node.getCaption());                               break;
+                }
+                parent.add(menuItem);
+                
+                if (node.getTag() != null)
+                {
+                    menuItem.setVisible(false);
+                    this.aliveTargets.add(node.getTag());
+                    this.aliveIndicators.add(menuItem);
+                }
+                break;
+        }
+        
+        final String id = settings.getId();
+        if (id != null)
+        {
+            if (this.lazy)
+                this.pendingIds.remove(id);
+            final WeakReference<Component> reference = new WeakReference<Component>(menuItem);
+            this.menuItems.put(id, reference);
+            //While patching, the handles are reset from the IDs once the menu bar has been patched
+            final int handle = this.model.getHandle(node);
+            if ((handle >= 0) && (this.handles.getModel() == this.model))
+                this.handles.set(handle, reference);
+            final Dispatch dispatch = new Dispatch(id, node.getKind(), settings.getInvoke(), menuItem);
+            dispatch.setThrottle(settings.getCoalesce(), settings.isOnRelease());
+            menuItem.putClientProperty(Dispatch.class, dispatch);
+            if (menuItem instanceof AbstractButton)
+            {
+                ((AbstractButton)menuItem).setActionCommand(id);
+                ((AbstractButton)menuItem).addActionListener(dispatch);
+            }
+            else if (menuItem instanceof JSlider)
+                ((JSlider)menuItem).addChangeListener(dispatch);
+        }
+        
+        if (menuItem instanceof AbstractButton)
+            applyButtonSettings((AbstractButton)menuItem, node, settings);
+        
+        if (node.isDisabled())
+            menuItem.setEnabled(false);
+        
+        if (node.isHidden())
+            menuItem.setVisible(false);
+        
+        if ((this.placed != null) && (node.getKind() != MenuNode.Kind.TAG))
+            this.placed.put(node, menuItem);
+        
+        return menuItem;
+    }
+    
+    /**
+     * Gets an icon
+     *
+     * @param   file  The icon file
+     * @return        The icon
+     */
+    private Icon icon(final String file)
+    {
+        return this.prototype == null ? IconCache.getShared().get(file) : this.prototype.getIcon(file);
+    }
+    
+    /**
+     * Applies the settings specific to buttons
+     *
+     * @param  button    The button
+     * @param  node      The button's node
+     * @param  settings  The button's settings
+     */
+    private void applyButtonSettings(final AbstractButton button, final MenuNode node, final MenuSettings settings)
+    {
+        final int group = node.getGroup();
+        if (group >= 0)
+        {
+            if (this.groups[group] == null)
+                this.groups[group] = new ButtonGroup();
+            this.groups[group].add(button);
+        }
+        
+        String icon;
+        if ((icon = settings.getIcon(MenuSettings.ICON))                   != null)  button.setIcon                (icon(icon));
+        if ((icon = settings.getIcon(MenuSettings.DISABLED_ICON))          != null)  button.setDisabledIcon        (icon(icon));
+        if ((icon = settings.getIcon(MenuSettings.DISABLED_SELECTED_ICON)) != null)  button.setDisabledSelectedIcon(icon(icon));
+        if ((icon = settings.getIcon(MenuSettings.PRESSED_ICON))           != null)  button.setPressedIcon         (icon(icon));
+        if ((icon = settings.getIcon(MenuSettings.ROLLOVER_ICON))          != null)  button.setRolloverIcon        (icon(icon));
+        if ((icon = settings.getIcon(MenuSettings.ROLLOVER_SELECTED_ICON)) != null)  button.setRolloverSelectedIcon(icon(icon));
+        if ((icon = settings.getIcon(MenuSettings.SELECTED_ICON))          != null)  button.setSelectedIcon        (icon(icon));
+        
+        if (settings.getRolloverable() != null)
+            button.setRolloverEnabled(settings.getRolloverable().booleanValue());
+        
+        if (settings.getMnemonic() >= 0)
+        {
+            button.setMnemonic(settings.getMnemonic());
+            if (settings.getMnemonicIndex() >= 0)
+                button.setDisplayedMnemonicIndex(settings.getMnemonicIndex());
+        }
+        
+        if ((settings.getAccelerator() != null) && (button instanceof JMenuItem))
+        {
+            ((JMenuItem)button).setAccelerator(settings.getAccelerator());
+            AcceleratorRegistry.getShared().register(this.window, settings.getAccelerator(), settings.getId(), (JMenuItem)button);
+            
+            final LazyAccelerator binding;
+            if (this.lazy && ((binding = this.pendingAccelerators.remove(settings.getAccelerator())) != null))
+            {
+                binding.item = (JMenuItem)button;
+                this.menu.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).remove(settings.getAccelerator());
+                this.menu.getActionMap().remove(binding);
+            }
+        }
+        
+        if (settings.getSetAttributeCount() > 0)
+        {
+            final ActionListener attributeListener = attributeListener(settings);
+            button.addActionListener(attributeListener);
+            if (this.attributeListeners != null)
+                this.attributeListeners.put(button, attributeListener);
+        }
+    }
+    
+    /**
+     * Creates a listener that sets the attributes of items when a button is clicked
+     *
+     * @param   settings  The button's settings
+     * @return            The listener
+     */
+    private ActionListener attributeListener(final MenuSettings settings)
+    {
+        final AttributeAction[] actions = new AttributeAction[settings.getSetAttributeCount()];
+        final int[] targets = new int[actions.length];
+        for (int i = 0; i < actions.length; i++)
+        {
+            actions[i] = settings.getAttributeAction(i);
+            targets[i] = this.model.getHandle(actions[i].targetId);
+        }
+        
+        return new ActionListener()
+                    {
+                        /**
+                         * {@inheritDoc}
+                         */
+                        public void actionPerformed(final ActionEvent event)
+                        {
+                            for (int i = 0; i < actions.length; i++)
+                            {
+                                final Component target;
+                                if ((targets[i] >= 0) && ((target = MenuBuilder.this.handles.get(targets[i])) instanceof JSlider))
+                                    actions[i].apply((JSlider)target);
+                            }
+                        }
+                    };
+    }
+    
+    
+    
+    /**
+     * Patches the menu bar to match a recompiled model, only the items that have changed are
+     * added, removed or updated, so IDs, listeners and selection states are kept.
+     * Must be called on the event dispatch thread, and {@link #track()} must have been called before building.
+     *
+     * @param  model  The recompiled model
+     */
+    void patch(final MenuModel model)
+    {
+        final MenuModel old = this.model;
+        this.model = model;
+        this.groups = new ButtonGroup[model.getGroupCount()];
+        
+        final HashSet<ButtonGroup> claimed = new HashSet<ButtonGroup>();
+        patchChildren(old.getRoot(), model.getRoot(), this.menu, claimed);
+        this.handles.reset(model);
+        
+        linkAliveIndicators();
+        JWeakSeparator.update(this.menu);
+    }
+    
+    /**
+     * Patches the children of a node
+     *
+     * @param  old      The node in the old model
+     * @param  node     The node in the new model
+     * @param  parent   The node's component
+     * @param  claimed  The button groups that have been assigned to a group index
+     */
+    private void patchChildren(final MenuNode old, final MenuNode node, final JComponent parent, final HashSet<ButtonGroup> claimed)
+    {
+        if ((parent instanceof JMenu) && this.pendingMenus.containsKey(parent))
+        {
+            undefer((JMenu)parent);
+            this.pendingMenus.put((JMenu)parent, node);
+            defer(node, (JMenu)parent);
+            return;
+        }
+        
+        final Container container = parent instanceof JMenu ? ((JMenu)parent).getPopupMenu() : parent;
+        
+        final HashMap<String, ArrayList<MenuNode>> unmatched = new HashMap<String, ArrayList<MenuNode>>();
+        for (int i = 0, n = old.getChildCount(); i < n; i++)
+        {
+            final MenuNode child = old.getChild(i);
+            ArrayList<MenuNode> list = unmatched.get(matchKey(child));
+            if (list == null)
+                unmatched.put(matchKey(child), list = new ArrayList<MenuNode>());
+            list.add(child);
+        }
+        
+        final MenuNode[] matched = new MenuNode[node.getChildCount()];
+        for (int i = 0, n = matched.length; i < n; i++)
+        {
+            final ArrayList<MenuNode> list = unmatched.get(matchKey(node.getChild(i)));
+            if ((list != null) && (list.isEmpty() == false))
+                matched[i] = list.remove(0);
+        }
+        
+        for (final ArrayList<MenuNode> list : unmatched.values())
+            for (final MenuNode child : list)
+                remove(child, container);
+        
+        final JComponent[] order = new JComponent[matched.length];
+        for (int i = 0, n = matched.length; i < n; i++)
+        {
+            final MenuNode child = node.getChild(i);
+            if ((matched[i] != null) && (sameComponent(matched[i], child) == false))
+            {
+                remove(matched[i], container);
+                matched[i] = null;
+            }
+            
+            if (matched[i] == null)
+            {
+                final JComponent component = buildNode(child, parent);
+                if (descend(child, component))
+                    buildChildren(child, component);
+            }
+            else
+            {
+                final JComponent component = this.placed.remove(matched[i]);
+                this.placed.put(child, component);
+                patchNode(matched[i], child, component, claimed);
+                if (child.getKind() == MenuNode.Kind.MENU)
+                    patchChildren(matched[i], child, component, claimed);
+            }
+            order[i] = this.placed.get(child);
+        }
+        
+        int pos = 0;
+        for (final JComponent component : order)
+        {
+            if (component == null)
+                continue;
+            
+            final Component[] components = container.getComponents();
+            if ((pos >= components.length) || (components[pos] != component))
+            {
+                container.remove(component);
+                container.add(component, pos);
+            }
+            pos++;
+            
+            if (component instanceof JMenuTag)
+            {
+                final JMenuTag tag = (JMenuTag)component;
+                final Component[] current = container.getComponents();
+                while ((pos < current.length) && isHandledBy(tag, current[pos]))
+                    pos++;
+            }
+        }
+    }
+    
+    /**
+     * Gets the key by which nodes in the old and new model are matched,
+     * nodes with IDs are matched by ID, other nodes by kind, caption and tag
+     *
+     * @param   node  The node
+     * @return        The node's key
+     */
+    private static String matchKey(final MenuNode node)
+    {
+        if (node.getId() != null)
+            return "#" + node.getId();
+        return node.getKind() + "\0" + node.getCaption() + "\0" + node.getTag();
+    }
+    
+    /**
+     * Checks whether the component of a node can be kept for a node in the new model
+     *
+     * @param   old   The node in the old model
+     * @param   node  The node in the new model
+     * @return        Whether the component can be kept
+     */
+    private static boolean sameComponent(final MenuNode old, final MenuNode node)
+    {
+        if ((old.getKind() != node.getKind()) || (old.hasComponent() != node.hasComponent()))
+            return false;
+        if ((old.getTag() == null) ? (node.getTag() != null) : (old.getTag().equals(node.getTag()) == false))
+            return false;
+        return true;
+    }
+    
+    /**
+     * Checks whether a component is managed by a tag
+     *
+     * @param   tag        The tag
+     * @param   component  The component
+     * @return             Whether the component is one of the tag's items or its empty indicator
+     */
+    private static boolean isHandledBy(final JMenuTag tag, final Component component)
+    {
+        if (component == tag.getEmptyIndicator())
+            return true;
+        for (final Component item : tag.getItems())
+            if (item == component)
+                return true;
+        return false;
+    }
+    
+    /**
+     * Removes the component of a node, and forgets the node and its descendants
+     *
+     * @param  node       The node
+     * @param  container  The container of the node's component
+     */
+    private void remove(final MenuNode node, final Container container)
+    {
+        final JComponent component = this.placed.get(node);
+        if (component != null)
+        {
+            container.remove(component);
+            if (component instanceof JMenuTag)
+                for (final Component handled : container.getComponents())
+                    if (isHandledBy((JMenuTag)component, handled))
+                        container.remove(handled);
+        }
+        forget(node);
+    }
+    
+    /**
+     * Forgets a node and its descendants
+     *
+     * @param  node  The node
+     */
+    private void forget(final MenuNode node)
+    {
+        final JComponent component = this.placed.remove(node);
+        if ((component instanceof JMenu) && (this.pendingMenus.remove(component) != null))
+            undefer((JMenu)component);
+        if (component instanceof JMenuItem)
+            AcceleratorRegistry.getShared().unregister((JMenuItem)component);
+        if (component instanceof AbstractButton)
+        {
+            final ActionListener attributeListener = this.attributeListeners.remove(component);
+            if (attributeListener != null)
+                ((AbstractButton)component).removeActionListener(attributeListener);
+        }
+        
+        //The ID may already belong to the item's replacement, if it was moved to an earlier menu
+        final String id = node.getId();
+        if ((id != null) && node.hasComponent())
+        {
+            final Component item = component instanceof JMenuTag ? ((JMenuTag)component).getEmptyIndicator() : component;
+            final WeakReference<Component> reference = this.menuItems.getBuilt(id);
+            if ((reference != null) && (reference.get() == item))
+                this.menuItems.remove(id);
+        }
+        
+        for (int i = 0, n = node.getChildCount(); i < n; i++)
+            forget(node.getChild(i));
+    }
+    
+    /**
+     * Forgets the IDs and accelerators registered for an unbuilt submenu
+     *
+     * @param  owner  The unbuilt submenu
+     */
+    private void undefer(final JMenu owner)
+    {
+        this.pendingIds.values().removeAll(Collections.singleton(owner));
+        
+        final Iterator<Map.Entry<KeyStroke, LazyAccelerator>> iterator = this.pendingAccelerators.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            final Map.Entry<KeyStroke, LazyAccelerator> entry = iterator.next();
+            if (entry.getValue().owner == owner)
+            {
+                iterator.remove();
+                this.menu.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).remove(entry.getKey());
+                this.menu.getActionMap().remove(entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Updates the properties of a kept component that differ between the old and the new model
+     *
+     * @param  old        The node in the old model
+     * @param  node       The node in the new model
+     * @param  component  The component added to the parent
+     * @param  claimed    The button groups that have been assigned to a group index
+     */
+    private void patchNode(final MenuNode old, final MenuNode node, final JComponent component, final HashSet<ButtonGroup> claimed)
+    {
+        final JComponent item = component instanceof JMenuTag ? (JComponent)(((JMenuTag)component).getEmptyIndicator()) : component;
+        if (item == null)
+            return;
+        
+        if ((item instanceof AbstractButton) && (equal(old.getCaption(), node.getCaption()) == false))
+            ((AbstractButton)item).setText(node.getCaption());
+        
+        if (old.isDisabled() != node.isDisabled())
+            item.setEnabled(node.isDisabled() == false);
+        
+        if ((old.isHidden() != node.isHidden()) && ((node.getTag() == null) || (node.getKind() == MenuNode.Kind.TAG)))
+            item.setVisible(node.isHidden() == false);
+        
+        if (item instanceof JSlider)
+            patchSlider((JSlider)item, old.getSettings(), node.getSettings());
+        else if (item instanceof AbstractButton)
+            patchButton((AbstractButton)item, old.getSettings(), node, claimed);
+    }
+    
+    /**
+     * Updates the settings of a slider that differ between the old and the new model
+     *
+     * @param  slider  The slider
+     * @param  old     The slider's old settings
+     * @param  now     The slider's new settings
+     */
+    private static void patchSlider(final JSlider slider, final MenuSettings old, final MenuSettings now)
+    {
+        if (old.isVertical() != now.isVertical())  slider.setOrientation(now.isVertical() ? JSlider.VERTICAL : JSlider.HORIZONTAL);
+        if (old.getMin()     != now.getMin())      slider.setMinimum(now.getMin());
+        if (old.getMax()     != now.getMax())      slider.setMaximum(now.getMax());
+        if (old.getValue()   != now.getValue())    slider.setValue(now.getValue());
+        if (old.getExtent()  != now.getExtent())   slider.setExtent(now.getExtent());
+        
+        final Dispatch dispatch = (Dispatch)(slider.getClientProperty(Dispatch.class));
+        if ((dispatch != null) && ((old.getCoalesce() != now.getCoalesce()) || (old.isOnRelease() != now.isOnRelease())))
+            dispatch.setThrottle(now.getCoalesce(), now.isOnRelease());
+    }
+    
+    /**
+     * Updates the settings of a button that differ between the old and the new model
+     *
+     * @param  button   The button
+     * @param  old      The button's old settings
+     * @param  node     The button's new node
+     * @param  claimed  The button groups that have been assigned to a group index
+     */
+    private void patchButton(final AbstractButton button, final MenuSettings old, final MenuNode node, final HashSet<ButtonGroup> claimed)
+    {
+        final MenuSettings now = node.getSettings();
+        
+        final ButtonGroup current = ((DefaultButtonModel)(button.getModel())).getGroup();
+        final int group = node.getGroup();
+        if (group < 0)
+        {
+            if (current != null)
+                current.remove(button);
+        }
+        else
+        {
+            if (this.groups[group] == null)
+                claimed.add(this.groups[group] = (current != null) && (claimed.contains(current) == false) ? current : new ButtonGroup());
+            if (current != this.groups[group])
+            {
+                if (current != null)
+                    current.remove(button);
+                this.groups[group].add(button);
+            }
+        }
+        
+        final Dispatch dispatch = (Dispatch)(button.getClientProperty(Dispatch.class));
+        if ((dispatch != null) && (equal(old.getInvoke(), now.getInvoke()) == false))
+            dispatch.setInvoke(now.getInvoke());
+        
+        for (int i = 0; i < MenuSettings.ICON_COUNT; i++)
+            if (equal(old.getIcon(i), now.getIcon(i)) == false)
+            {
+                final Icon icon = now.getIcon(i) == null ? null : icon(now.getIcon(i));
+                switch (i)
+                {
+                    case MenuSettings.ICON:                    button.setIcon                (icon);  break;
+                    case MenuSettings.DISABLED_ICON:           button.setDisabledIcon        (icon);  break;
+                    case MenuSettings.DISABLED_SELECTED_ICON:  button.setDisabledSelectedIcon(icon);  break;
+                    case MenuSettings.PRESSED_ICON:            button.setPressedIcon         (icon);  break;
+                    case MenuSettings.ROLLOVER_ICON:           button.setRolloverIcon        (icon);  break;
+                    case MenuSettings.ROLLOVER_SELECTED_ICON:  button.setRolloverSelectedIcon(icon);  break;
+                    default:                                   button.setSelectedIcon        (icon);  break;
+                }
+            }
+        
+        if ((now.getRolloverable() != null) && (now.getRolloverable().equals(old.getRolloverable()) == false))
+            button.setRolloverEnabled(now.getRolloverable().booleanValue());
+        
+        if ((old.getMnemonic() != now.getMnemonic()) || (old.getMnemonicIndex() != now.getMnemonicIndex()))
+        {
+            button.setMnemonic(now.getMnemonic() < 0 ? 0 : now.getMnemonic());
+            if (now.getMnemonicIndex() >= 0)
+                button.setDisplayedMnemonicIndex(now.getMnemonicIndex());
+        }
+        
+        if ((button instanceof JMenuItem) && (button instanceof JMenu == false))
+            if (equal(old.getAccelerator(), now.getAccelerator()) == false)
+                AcceleratorRegistry.getShared().remap((JMenuItem)button, now.getId(), now.getAccelerator());
+        
+        if ((old.getSetAttributeCount() > 0) || (now.getSetAttributeCount() > 0))
+        {
+            //Replaced even if unchanged, as the targets are resolved to handles in the model
+            final ActionListener previous = this.attributeListeners.remove(button);
+            if (previous != null)
+                button.removeActionListener(previous);
+            if (now.getSetAttributeCount() > 0)
+            {
+                final ActionListener attributeListener = attributeListener(now);
+                button.addActionListener(attributeListener);
+                this.attributeListeners.put(button, attributeListener);
+            }
+        }
+    }
+    
+    /**
+     * Checks whether two objects are equal
+     *
+     * @param   a  The first object, may be {@code null}
+     * @param   b  The second object, may be {@code null}
+     * @return     Whether the objects are equal
+     */
+    private static boolean equal(final Object a, final Object b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+    
+}
+
+
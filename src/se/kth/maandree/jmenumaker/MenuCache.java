@@ -0,0 +1,265 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Bounded cache of compiled menus, keyed by the canonical path of the menu markup file.
+ * A cached menu is only used as long as none of the files it was compiled from,
+ * including included files, have changed modification time or size.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class MenuCache
+{
+    /**
+     * Constructor
+     *
+     * @param  capacity  The maximum number of cached menus
+     */
+    public MenuCache(final int capacity)
+    {
+        this.capacity = capacity;
+    }
+    
+    
+    
+    /**
+     * The default capacity of the shared cache
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+    
+    /**
+     * The process-wide cache used by {@link JMenuMaker#makeMenu(java.awt.Container, String, UpdateListener, Menp)}
+     */
+    private static final MenuCache shared = new MenuCache(DEFAULT_CAPACITY);
+    
+    
+    
+    /**
+     * The maximum number of cached menus
+     */
+    private int capacity;
+    
+    /**
+     * The cached menus, in least recently used order
+     */
+    private final LinkedHashMap<String, MenuModel> models = new LinkedHashMap<String, MenuModel>(16, 0.75f, true)
+            {
+                /**
+                 * Desired by {@link Serializable}
+                 */
+                private static final long serialVersionUID = 1;
+                
+                /**
+                 * {@inheritDoc}
+                 */
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, MenuModel> eldest)
+                {
+                    if (size() <= MenuCache.this.capacity)
+                        return false;
+                    MenuCache.this.evictions++;
+                    return true;
+                }
+            };
+    
+    /**
+     * The number of lookups that where served from the cache
+     */
+    private long hits = 0;
+    
+    /**
+     * The number of lookups that required the menu to be loaded
+     */
+    private long misses = 0;
+    
+    /**
+     * The number of menus that have been evicted because the cache was full
+     */
+    private long evictions = 0;
+    
+    
+    
+    /**
+     * Gets the process-wide cache
+     *
+     * @return  The process-wide cache
+     */
+    public static MenuCache getShared()
+    {
+        return shared;
+    }
+    
+    
+    
+    /**
+     * Gets a compiled menu, loading it if it is not cached or has been modified
+     *
+     * @param   file  The file containing the menu configurations
+     * @return        The compiled menu
+     *
+     * @throws  IOException  If the configuration file cannot be read
+     */
+    public MenuModel get(final String file) throws IOException
+    {
+        final String key = getKey(file);
+        synchronized (this)
+        {
+            final MenuModel model = this.models.get(key);
+            if ((model != null) && (model.isStale() == false))
+            {
+                this.hits++;
+                return model;
+            }
+            this.misses++;
+        }
+        
+        final MenuModel model = MenuBinary.load(file);
+        synchronized (this)
+        {
+            this.models.put(key, model);
+        }
+        return model;
+    }
+    
+    /**
+     * Removes a menu from the cache
+     *
+     * @param   file  The file containing the menu configurations
+     * @return        Whether the menu was cached
+     *
+     * @throws  IOException  If the canonical path of the file cannot be resolved
+     */
+    public boolean invalidate(final String file) throws IOException
+    {
+        final String key = getKey(file);
+        synchronized (this)
+        {
+            return this.models.remove(key) != null;
+        }
+    }
+    
+    /**
+     * Removes all menus from the cache
+     */
+    public synchronized void invalidateAll()
+    {
+        this.models.clear();
+    }
+    
+    
+    
+    /**
+     * Gets the maximum number of cached menus
+     *
+     * @return  The maximum number of cached menus
+     */
+    public synchronized int getCapacity()
+    {
+        return this.capacity;
+    }
+    
+    /**
+     * Sets the maximum number of cached menus, evicting the least recently used menus if necessary
+     *
+     * @param  capacity  The maximum number of cached menus
+     */
+    public synchronized void setCapacity(final int capacity)
+    {
+        this.capacity = capacity;
+        final Iterator<String> iterator = this.models.keySet().iterator();
+        while ((this.models.size() > capacity) && iterator.hasNext())
+        {
+            iterator.next();
+            iterator.remove();
+            this.evictions++;
+        }
+    }
+    
+    /**
+     * Gets the number of cached menus
+     *
+     * @return  The number of cached menus
+     */
+    public synchronized int size()
+    {
+        return this.models.size();
+    }
+    
+    /**
+     * Gets the number of lookups that where served from the cache
+     *
+     * @return  The number of cache hits
+     */
+    public synchronized long getHits()
+    {
+        return this.hits;
+    }
+    
+    /**
+     * Gets the number of lookups that required the menu to be loaded
+     *
+     * @return  The number of cache misses
+     */
+    public synchronized long getMisses()
+    {
+        return this.misses;
+    }
+    
+    /**
+     * Gets the number of menus that have been evicted because the cache was full
+     *
+     * @return  The number of evictions
+     */
+    public synchronized long getEvictions()
+    {
+        return this.evictions;
+    }
+    
+    /**
+     * Resets the hit, miss and eviction counters
+     */
+    public synchronized void resetStatistics()
+    {
+        this.hits = this.misses = this.evictions = 0;
+    }
+    
+    
+    
+    /**
+     * Gets the cache key of a file
+     *
+     * @param   file  The file
+     * @return        The file's canonical path
+     *
+     * @throws  IOException  If the canonical path of the file cannot be resolved
+     */
+    private static String getKey(final String file) throws IOException
+    {
+        return (new File(file)).getCanonicalPath();
+    }
+    
+}
+
+
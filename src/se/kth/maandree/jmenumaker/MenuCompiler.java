@@ -0,0 +1,707 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import javax.swing.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Menu markup compiler, parses JMML into a {@link MenuModel}
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+final class MenuCompiler
+{
+    /**
+     * Node under construction, kept on the container stack until it is popped
+     */
+    private static final class Draft
+    {
+        /**
+         * Constructor
+         *
+         * @param  kind      The kind of the node
+         * @param  caption   The caption, empty indicator caption for tags, or {@code null}
+         * @param  tag       The tag name for tags and alive indicators, otherwise {@code null}
+         * @param  disabled  Whether the item is disabled
+         * @param  hidden    Whether the item is hidden
+         * @param  group     The index of the item's button group, -1 if none
+         * @param  settings  The item's settings
+         * @param  file      The file the item was defined in
+         * @param  line      The line the item was defined at
+         */
+        Draft(final MenuNode.Kind kind, final String caption, final String tag, final boolean disabled, final boolean hidden,
+              final int group, final MenuSettings settings, final String file, final int line)
+        {
+            this.kind = kind;
+            this.caption = caption;
+            this.tag = tag;
+            this.disabled = disabled;
+            this.hidden = hidden;
+            this.group = group;
+            this.settings = settings;
+            this.file = file;
+            this.line = line;
+        }
+        
+        /**
+         * The kind of the node
+         */
+        final MenuNode.Kind kind;
+        
+        /**
+         * The caption, empty indicator caption for tags, or {@code null}
+         */
+        final String caption;
+        
+        /**
+         * The tag name for tags and alive indicators, otherwise {@code null}
+         */
+        final String tag;
+        
+        /**
+         * Whether the item is disabled
+         */
+        final boolean disabled;
+        
+        /**
+         * Whether the item is hidden
+         */
+        final boolean hidden;
+        
+        /**
+         * The index of the item's button group, -1 if none
+         */
+        final int group;
+        
+        /**
+         * The item's settings
+         */
+        final MenuSettings settings;
+        
+        /**
+         * The file the item was defined in
+         */
+        final String file;
+        
+        /**
+         * The line the item was defined at
+         */
+        final int line;
+        
+        /**
+         * The node's children
+         */
+        final ArrayList<MenuNode> children = new ArrayList<MenuNode>();
+        
+        /**
+         * Gets whether the node builds a component
+         *
+         * @return  Whether the node builds a component
+         */
+        boolean hasComponent()
+        {
+            return (this.kind != MenuNode.Kind.TAG) || (this.caption != null);
+        }
+        
+        /**
+         * Creates the immutable node
+         *
+         * @return  The node
+         */
+        MenuNode toNode()
+        {
+            final MenuNode[] nodes = this.children.isEmpty() ? MenuNode.NO_CHILDREN
+                                                             : this.children.toArray(new MenuNode[this.children.size()]);
+            return new MenuNode(this.kind, this.caption, this.tag, this.settings.isSelected(), this.disabled, this.hidden,
+                                this.group, this.settings, this.file, this.line, nodes);
+        }
+    }
+    
+    
+    
+    /**
+     * A tokenised file, with its modification time and size from before it was read
+     */
+    static final class TokenisedFile
+    {
+        /**
+         * Constructor
+         *
+         * @param  source  The file, with its modification time and size from before it was read
+         * @param  lines   The file's lines
+         */
+        TokenisedFile(final MenuSource source, final MenuLine[] lines)
+        {
+            this.source = source;
+            this.lines = lines;
+        }
+        
+        /**
+         * The file, with its modification time and size from before it was read
+         */
+        final MenuSource source;
+        
+        /**
+         * The file's lines
+         */
+        final MenuLine[] lines;
+    }
+    
+    
+    /**
+     * Reads and tokenises a menu markup file, and starts reading the files it includes
+     */
+    private static final class ReadTask extends RecursiveTask<TokenisedFile>
+    {
+        /**
+         * Desired by {@link Serializable}
+         */
+        private static final long serialVersionUID = 1;
+        
+        /**
+         * Constructor
+         *
+         * @param  file      The file to read
+         * @param  key       The canonical path of the file
+         * @param  tasks     Map from canonical paths to the tasks reading the files
+         * @param  reuse     Map from canonical paths to already tokenised files, {@code null} if none
+         * @param  parallel  Whether to read included files in parallel
+         */
+        ReadTask(final String file, final String key, final ConcurrentHashMap<String, ReadTask> tasks,
+                 final Map<String, TokenisedFile> reuse, final boolean parallel)
+        {
+            this.file = file;
+            this.key = key;
+            this.tasks = tasks;
+            this.reuse = reuse;
+            this.parallel = parallel;
+        }
+        
+        /**
+         * The file to read
+         */
+        final String file;
+        
+        /**
+         * The canonical path of the file
+         */
+        final String key;
+        
+        /**
+         * Map from canonical paths to the tasks reading the files
+         */
+        private final ConcurrentHashMap<String, ReadTask> tasks;
+        
+        /**
+         * Map from canonical paths to already tokenised files, {@code null} if none
+         */
+        private final Map<String, TokenisedFile> reuse;
+        
+        /**
+         * Whether to read included files in parallel
+         */
+        private final boolean parallel;
+        
+        /**
+         * The error that occurred when reading the file, {@code null} if none
+         */
+        IOException error = null;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected TokenisedFile compute()
+        {
+            TokenisedFile tokenised = this.reuse == null ? null : this.reuse.get(this.key);
+            if (tokenised == null)
+                try
+                {
+                    final MenuSource source = MenuSource.stat(this.file);
+                    tokenised = new TokenisedFile(source, read(this.file));
+                }
+                catch (final IOException err)
+                {
+                    this.error = err;
+                    return null;
+                }
+            
+            final ArrayList<ReadTask> created = new ArrayList<ReadTask>();
+            for (final MenuLine line : tokenised.lines)
+                if (line.include != null)
+                {
+                    final ReadTask task = new ReadTask(line.include, line.includeKey, this.tasks, this.reuse, this.parallel);
+                    if (this.tasks.putIfAbsent(line.includeKey, task) == null)
+                        created.add(task);
+                }
+            
+            if (this.parallel)
+                invokeAll(created);
+            else
+                for (final ReadTask task : created)
+                    task.invoke();
+            
+            return tokenised;
+        }
+    }
+    
+    
+    
+    /**
+     * Compiles a menu markup file, and the files it includes
+     *
+     * @param   file      The file containing the menu configurations
+     * @param   parallel  Whether to read and tokenise included files in parallel
+     * @return            The compiled menu
+     *
+     * @throws  IOException  If the configuration file, or an included file, cannot be read
+     */
+    static MenuModel compile(final String file, final boolean parallel) throws IOException
+    {
+        return compile(file, parallel, null);
+    }
+    
+    /**
+     * Compiles a menu markup file, and the files it includes, only reading files that have not already been tokenised
+     *
+     * @param   file      The file containing the menu configurations
+     * @param   parallel  Whether to read and tokenise included files in parallel
+     * @param   lines     Map from canonical paths to already tokenised files, {@code null} if none;
+     *                    replaced by the tokenised files of the compiled menu if the files could be read
+     * @return            The compiled menu
+     *
+     * @throws  IOException  If the configuration file, or an included file, cannot be read
+     */
+    static MenuModel compile(final String file, final boolean parallel, final Map<String, TokenisedFile> lines) throws IOException
+    {
+        final ConcurrentHashMap<String, ReadTask> tasks = new ConcurrentHashMap<String, ReadTask>();
+        final String key = (new File(file)).getCanonicalPath();
+        final ReadTask root = new ReadTask(file, key, tasks, lines, parallel);
+        tasks.put(key, root);
+        
+        if (parallel)
+            ForkJoinPool.commonPool().invoke(root);
+        else
+            root.invoke();
+        
+        if (lines != null)
+        {
+            final HashMap<String, TokenisedFile> read = new HashMap<String, TokenisedFile>();
+            for (final ReadTask task : tasks.values())
+            {
+                final TokenisedFile tokenised = task.join();
+                if (task.error != null)
+                    throw task.error;
+                read.put(task.key, tokenised);
+            }
+            lines.clear();
+            lines.putAll(read);
+        }
+        
+        return (new MenuCompiler(file, tasks)).assemble(key);
+    }
+    
+    
+    
+    /**
+     * Reads and tokenises a file, without reading included files
+     *
+     * @param   file  The file
+     * @return        The file's lines
+     *
+     * @throws  IOException  If the file cannot be read
+     */
+    static MenuLine[] read(final String file) throws IOException
+    {
+        final MenuTokenizer tokenizer = MenuTokenizer.open(file);
+        final MenuLine[] lines = new MenuLine[tokenizer.getLineCount()];
+        for (int i = 0, n = lines.length; i < n; i++)
+        {
+            final MenuLine line = lines[i] = new MenuLine(tokenizer, i);
+            final String include = tokenizer.getInclude(i);
+            if (include != null)
+            {
+                line.include = include;
+                line.includeKey = (new File(include)).getCanonicalPath();
+            }
+            else
+                tokenize(line, tokenizer);
+        }
+        return lines;
+    }
+    
+    /**
+     * Tokenises a line
+     *
+     * @param  rc         The line to fill in
+     * @param  tokenizer  The tokeniser over the file the line is in
+     */
+    private static void tokenize(final MenuLine rc, final MenuTokenizer tokenizer)
+    {
+        boolean weak = false, hard = false;
+        int caption = -1, captionEnd = -1, special = -1, specialEnd = -1;
+        
+        tokenizer.selectLine(rc.index);
+        for (int kind; (kind = tokenizer.next()) != MenuTokenizer.END;)
+            if (kind == MenuTokenizer.STRING)
+            {
+                caption = tokenizer.getStart();
+                captionEnd = tokenizer.getEnd();
+            }
+            else if (kind == MenuTokenizer.SPECIAL)
+            {
+                special = tokenizer.getStart();
+                specialEnd = tokenizer.getEnd();
+            }
+            else if (tokenizer.is(">"))          rc.push      = true;
+            else if (tokenizer.is("<"))          rc.pop       = true;
+            else if (tokenizer.is("{"))          rc.group     = true;
+            else if (tokenizer.is("}"))          rc.ungroup   = true;
+            else if (tokenizer.is("{~"))         rc.nullgroup = true;
+            else if (tokenizer.is("~}"))         rc.ungroup   = true;
+            else if (tokenizer.is("-"))          weak         = true;
+            else if (tokenizer.is("--"))         hard         = true;
+            else if (tokenizer.is("disabled"))   rc.disabled  = true;
+            else if (tokenizer.is("enabled"))    rc.enabled   = true;
+            else if (tokenizer.is("hidden"))     rc.hidden    = true;
+            else if (tokenizer.is("&quite!"))    rc.verbosity = MenuLine.QUITE;
+            else if (tokenizer.is("&verbose!"))  rc.verbosity = MenuLine.VERBOSE;
+            else
+            {
+                if (rc.settings == null)
+                    rc.settings = new ArrayList<String>();
+                rc.settings.add(tokenizer.copy());
+            }
+        
+        if (hard)
+            rc.kind = MenuNode.Kind.SEPARATOR;
+        else if (weak)
+            rc.kind = MenuNode.Kind.WEAK_SEPARATOR;
+        else if (caption >= 0)
+        {
+            String text = tokenizer.unquote(caption, captionEnd);
+            if (tokenizer.hasBang())
+            {
+                rc.bang = text.indexOf("!");
+                text = text.substring(0, rc.bang) + text.substring(rc.bang + 1);
+            }
+            if (tokenizer.isRich())
+                text = "<html>" + text + "</html>";
+            
+            rc.kind = MenuNode.Kind.ITEM;
+            rc.caption = text;
+        }
+        else if (special >= 0)
+            if (tokenizer.equals(special + 1, specialEnd - 1, " "))
+                rc.kind = MenuNode.Kind.SPACER;
+            else if (tokenizer.startsWith(special + 1, specialEnd - 1, "!") && (tokenizer.startsWith(special + 1, specialEnd - 1, "!\"") == false))
+            {
+                if (tokenizer.equals(special + 1, specialEnd - 1, "!slider"))
+                    rc.kind = MenuNode.Kind.SLIDER;
+            }
+            else
+            {
+                String text = null, tag = null;
+                int iText = 0, iTag = 0, tokenIndex = 0;
+                boolean delimiter = false;
+                
+                tokenizer.selectSpecial(special, specialEnd);
+                for (int kind; (kind = tokenizer.next()) != MenuTokenizer.END; tokenIndex++)
+                    if (kind == MenuTokenizer.STRING)
+                    {
+                        text = tokenizer.unquote(tokenizer.getStart(), tokenizer.getEnd());
+                        iText = tokenIndex;
+                    }
+                    else if (tokenizer.is("?"))
+                        delimiter = true;
+                    else
+                    {
+                        tag = tokenizer.copy();
+                        iTag = tokenIndex;
+                    }
+                
+                if ((text != null))
+                {
+                    if (tokenizer.hasBang())
+                    {
+                        final int iTextBang = text.indexOf("!");
+                        text = text.substring(0, iTextBang) + text.substring(iTextBang + 1);
+                    }
+                    if (tokenizer.isRich())
+                        text = "<html>" + text + "</html>";
+                }
+                
+                if (tag != null)
+                {
+                    rc.tag = tag;
+                    if (delimiter)
+                    {
+                        rc.caption = text;
+                        rc.kind = iTag < iText ? MenuNode.Kind.TAG : MenuNode.Kind.ITEM;
+                    }
+                    else
+                        rc.kind = MenuNode.Kind.TAG;
+                }
+            }
+    }
+    
+    
+    
+    /**
+     * Constructor
+     *
+     * @param  file   The file containing the menu configurations
+     * @param  tasks  Map from canonical paths to the tasks that have read the files
+     */
+    private MenuCompiler(final String file, final ConcurrentHashMap<String, ReadTask> tasks)
+    {
+        this.file = file;
+        this.tasks = tasks;
+        this.stack.add(new Draft(MenuNode.Kind.ROOT, null, null, false, false, -1, MenuSettings.NONE, file, 0));
+    }
+    
+    
+    
+    /**
+     * The file containing the menu configurations
+     */
+    private final String file;
+    
+    /**
+     * Map from canonical paths to the tasks that have read the files
+     */
+    private final ConcurrentHashMap<String, ReadTask> tasks;
+    
+    /**
+     * The container stack
+     */
+    private final ArrayList<Draft> stack = new ArrayList<Draft>();
+    
+    /**
+     * The group stack
+     */
+    private final ArrayList<Integer> groupStack = new ArrayList<Integer>();
+    
+    /**
+     * The files being spliced in, outermost first
+     */
+    private final ArrayList<String> includeStack = new ArrayList<String>();
+    
+    /**
+     * The files the menu is compiled from, in order of inclusion
+     */
+    private final ArrayList<MenuSource> sources = new ArrayList<MenuSource>();
+    
+    /**
+     * The IDs in use
+     */
+    private final HashSet<String> ids = new HashSet<String>();
+    
+    /**
+     * The accelerators in use
+     */
+    private final HashSet<KeyStroke> accelerators = new HashSet<KeyStroke>();
+    
+    /**
+     * The number of button groups
+     */
+    private int groups = 0;
+    
+    /**
+     * The unknown settings that have already been reported
+     */
+    private final HashSet<String> reported = new HashSet<String>();
+    
+    /**
+     * Whether to report rendering information, {@link JMenuMaker#errOutput}
+     * unless changed by {@code &quite!} or {@code &verbose!}
+     */
+    private boolean verbose = JMenuMaker.errOutput;
+    
+    
+    
+    /**
+     * Builds the model from the tokenised files
+     *
+     * @param   key  The canonical path of the root file
+     * @return       The compiled menu
+     *
+     * @throws  IOException  If a file could not be read
+     */
+    private MenuModel assemble(final String key) throws IOException
+    {
+        splice(this.file, key);
+        
+        while (this.stack.size() > 1)
+        {
+            final Draft popped = this.stack.remove(0);
+            this.stack.get(0).children.add(popped.toNode());
+        }
+        
+        return new MenuModel(this.file, this.stack.get(0).toNode(), this.groups, this.sources.toArray(new MenuSource[this.sources.size()]));
+    }
+    
+    /**
+     * Compiles the lines of a file, splicing in included files in document order
+     *
+     * @param   file  The file, as it was referred to
+     * @param   key   The canonical path of the file
+     *
+     * @throws  IOException  If a file could not be read
+     */
+    private void splice(final String file, final String key) throws IOException
+    {
+        if (this.includeStack.contains(key))
+        {
+            final StringBuilder chain = new StringBuilder();
+            for (final String include : this.includeStack)
+                chain.append(include).append(" -> ");
+            throw new RuntimeException("Recursive inclusion: " + chain + key);
+        }
+        
+        final ReadTask task = this.tasks.get(key);
+        final TokenisedFile tokenised = task.join();
+        if (task.error != null)
+            throw task.error;
+        final MenuLine[] lines = tokenised.lines;
+        
+        this.sources.add(tokenised.source.as(file));
+        this.includeStack.add(key);
+        for (final MenuLine line : lines)
+        {
+            final MenuDiagnostics diagnostics = JMenuMaker.diagnostics;
+            if (this.verbose && diagnostics.isEnabled(MenuDiagnostics.Level.TRACE) && (line.source.startsWith(line.index, "&quite!") == false))
+            {
+                diagnostics.report(MenuDiagnostics.Level.TRACE, line.file, line.line, MenuDiagnostics.LINE,
+                                   "At line " + line.line + " in " + line.file + ":  " + line.source.getText(line.index, 0));
+                for (int i = 0, n = line.source.getAppendCount(line.index); i < n; i++)
+                    diagnostics.report(MenuDiagnostics.Level.TRACE, line.file, line.line + i + 1, MenuDiagnostics.APPENDED_LINE,
+                                       "Appending line " + (line.line + i + 1) + ":  " + line.source.getText(line.index, i));
+            }
+            
+            if (line.include != null)
+                splice(line.include, line.includeKey);
+            else
+                compile(line);
+        }
+        this.includeStack.remove(this.includeStack.size() - 1);
+    }
+    
+    /**
+     * Compiles a line
+     *
+     * @param  line  The tokenised line
+     */
+    private void compile(final MenuLine line)
+    {
+        if (line.verbosity != MenuLine.KEEP)
+            this.verbose = line.verbosity != MenuLine.QUITE;
+        
+        if (line.pop)
+        {
+            if (this.stack.size() == 1)
+                throw new RuntimeException("Unmatched < at line " + line.line + " in " + line.file);
+            final Draft popped = this.stack.remove(0);
+            this.stack.get(0).children.add(popped.toNode());
+        }
+        if (line.ungroup)
+        {
+            if (this.groupStack.isEmpty())
+                throw new RuntimeException("Unmatched } at line " + line.line + " in " + line.file);
+            this.groupStack.remove(0);
+        }
+        
+        final int itemGroup = this.groupStack.isEmpty() ? -1 : this.groupStack.get(0).intValue();
+        Draft draft = null;
+        
+        if (line.kind == MenuNode.Kind.ITEM)
+        {
+            final MenuSettings settings = settings(line, line.tag == null ? line.caption : null, line.bang);
+            draft = new Draft(buttonKind(line.push, settings), line.caption, line.tag, line.disabled, line.hidden,
+                              itemGroup, settings, line.file, line.line);
+        }
+        else if ((line.kind == MenuNode.Kind.TAG) && (line.caption == null))
+            draft = new Draft(MenuNode.Kind.TAG, null, line.tag, false, false, -1, MenuSettings.NONE, line.file, line.line);
+        else if (line.kind != null)
+            draft = new Draft(line.kind, line.caption, line.tag, line.kind == MenuNode.Kind.TAG ? !line.enabled : line.disabled,
+                              line.hidden, itemGroup, settings(line, null, -1), line.file, line.line);
+        
+        if (draft != null)
+        {
+            final String id = draft.settings.getId();
+            if ((id != null) && draft.hasComponent())
+                if (this.ids.add(id) == false)
+                    throw new RuntimeException("Reuse of unique ID: " + id.replace("\0", "~"));
+            
+            if (draft.kind.isButton() || (draft.kind == MenuNode.Kind.TAG))
+                if (draft.settings.getAccelerator() != null)
+                    if (this.accelerators.add(draft.settings.getAccelerator()) == false)
+                        throw new RuntimeException("Reuse of accelerator: " + draft.settings.getAcceleratorText());
+            
+            if (line.push && draft.hasComponent())
+                this.stack.add(0, draft);
+            else
+                this.stack.get(0).children.add(draft.toNode());
+        }
+        
+        if (line.group)
+            this.groupStack.add(0, Integer.valueOf(this.groups++));
+        
+        if (line.nullgroup)
+            this.groupStack.add(0, Integer.valueOf(-1));
+    }
+    
+    /**
+     * Parses the settings of a line
+     *
+     * @param   line     The tokenised line
+     * @param   caption  The item's caption, {@code null} if none
+     * @param   bang     The index of the bang mnemonic in the caption, -1 if none
+     * @return           The parsed settings
+     */
+    private MenuSettings settings(final MenuLine line, final String caption, final int bang)
+    {
+        if (line.settings == null)
+            return MenuSettings.parse(Collections.<String>emptyList(), caption, bang, line.file, line.line, this.reported, this.verbose);
+        return MenuSettings.parse(line.settings, caption, bang, line.file, line.line, this.reported, this.verbose);
+    }
+    
+    /**
+     * Selects the node kind for a button item
+     *
+     * @param   push      Whether the item has the push token
+     * @param   settings  The item's settings
+     * @return            The node kind
+     */
+    private static MenuNode.Kind buttonKind(final boolean push, final MenuSettings settings)
+    {
+        if (push)                 return MenuNode.Kind.MENU;
+        if (settings.isCheck())   return MenuNode.Kind.CHECK;
+        if (settings.isRadio())   return MenuNode.Kind.RADIO;
+        return MenuNode.Kind.ITEM;
+    }
+    
+}
+
+
@@ -0,0 +1,139 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+
+/**
+ * Sink for diagnostics reported while compiling and building menus.
+ * <p>
+ * Reporters check {@link #isEnabled(Level)} before building a message,
+ * so nothing is built for levels the sink does not want.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public interface MenuDiagnostics
+{
+    /**
+     * Diagnostic level
+     */
+    enum Level
+    {
+        /**
+         * Rendering information, only reported while {@link JMenuMaker#errOutput} is set
+         */
+        TRACE,
+        
+        /**
+         * Information
+         */
+        INFO,
+        
+        /**
+         * Something was ignored, the menu was still built
+         */
+        WARN,
+        
+        /**
+         * Something failed
+         */
+        ERROR
+    }
+    
+    
+    
+    /**
+     * Code of the trace of a line that is compiled, the message is the line
+     */
+    String LINE = "line";
+    
+    /**
+     * Code of the trace of a line that is appended to the previous line, the message is the line
+     */
+    String APPENDED_LINE = "appended-line";
+    
+    /**
+     * Code of an unknown item setting
+     */
+    String UNKNOWN_SETTING = "unknown-setting";
+    
+    /**
+     * Code of an invalid key name
+     */
+    String INVALID_KEY = "invalid-key";
+    
+    /**
+     * Code of an accelerator that is owned by two items
+     */
+    String ACCELERATOR_CONFLICT = "accelerator-conflict";
+    
+    /**
+     * Code of an icon atlas image or index that could not be read
+     */
+    String UNREADABLE_ATLAS = "unreadable-atlas";
+    
+    /**
+     * Code of a malformed icon atlas index entry
+     */
+    String MALFORMED_ATLAS_ENTRY = "malformed-atlas-entry";
+    
+    /**
+     * Code of a malformed {@code setAttribute=} and {@code setValue=} pair
+     */
+    String MALFORMED_ATTRIBUTE_ACTION = "malformed-attribute-action";
+    
+    /**
+     * Code of a hot reload that failed
+     */
+    String RELOAD_FAILED = "reload-failed";
+    
+    /**
+     * Code of a Menp method that could not be compiled and is interpreted instead
+     */
+    String MENP_INTERPRETED = "menp-interpreted";
+    
+    /**
+     * Code of a change made to Menp code when it was optimised, one is reported for each change
+     */
+    String MENP_OPTIMIZED = "menp-optimized";
+    
+    
+    
+    /**
+     * Checks whether diagnostics of a level are wanted
+     *
+     * @param   level  The level
+     * @return         Whether diagnostics of the level are wanted
+     */
+    boolean isEnabled(Level level);
+    
+    /**
+     * Reports a diagnostic, only called if its level is enabled
+     *
+     * @param  level    The level
+     * @param  file     The file the diagnostic concerns, {@code null} if none
+     * @param  line     The line, in the file, the diagnostic concerns, 0 if none
+     * @param  code     The code of the diagnostic, one of the codes defined by this interface
+     * @param  message  The message, readable on its own
+     */
+    void report(Level level, String file, int line, String code, String message);
+    
+}
+
+
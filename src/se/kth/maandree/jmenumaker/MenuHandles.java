@@ -0,0 +1,202 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import java.awt.*;
+import java.util.*;
+import java.lang.ref.*;
+
+
+/**
+ * Integer handles of the items, with IDs, of a built menu bar.
+ * <p>
+ * Each ID in a {@link MenuModel} has a dense handle, resolving a handle is
+ * an array access. Look handles up once, with {@link #getHandle(String)},
+ * and keep them. The {@link HashMap} returned when the menu bar was built
+ * stays available as a compatibility view through {@link #asMap()}.
+ * <p>
+ * Handles belong to the model; when a {@link MenuReloader} patches the menu
+ * bar with a recompiled model the handles must be looked up again.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class MenuHandles
+{
+    /**
+     * Constructor
+     *
+     * @param  model  The compiled menu
+     * @param  map    The map from IDs to items
+     */
+    MenuHandles(final MenuModel model, final HashMap<String, WeakReference<Component>> map)
+    {
+        this.model = model;
+        this.map = map;
+        this.components = new WeakReference<?>[model.getIdCount()];
+    }
+    
+    
+    
+    /**
+     * The compiled menu
+     */
+    private MenuModel model;
+    
+    /**
+     * The map from IDs to items
+     */
+    private final HashMap<String, WeakReference<Component>> map;
+    
+    /**
+     * Map from handles to the references, in the map, to the items, {@code null} for items that have not been built;
+     * the items are only weakly referenced, like in the map, so the handles do not keep a disposed menu bar alive
+     */
+    private WeakReference<?>[] components;
+    
+    
+    
+    /**
+     * Gets the handles of a menu bar built by the menu maker
+     *
+     * @param   map  The {@link HashMap} returned when the menu bar was built
+     * @return       The handles, {@code null} if the map was not returned by the menu maker
+     */
+    public static MenuHandles of(final Map<String, WeakReference<Component>> map)
+    {
+        return map instanceof MenuBuilder.IdMap ? ((MenuBuilder.IdMap)map).getHandles() : null;
+    }
+    
+    
+    
+    /**
+     * Gets the handle of an ID
+     *
+     * @param   id  The ID
+     * @return      The ID's handle, -1 if the menu has no such ID
+     */
+    public int getHandle(final String id)
+    {
+        return this.model.getHandle(id);
+    }
+    
+    /**
+     * Gets the ID of a handle
+     *
+     * @param   handle  The handle
+     * @return          The handle's ID
+     */
+    public String getId(final int handle)
+    {
+        return this.model.getId(handle);
+    }
+    
+    /**
+     * Gets the number of handles
+     *
+     * @return  The number of handles
+     */
+    public int size()
+    {
+        return this.components.length;
+    }
+    
+    /**
+     * Gets an item, building its submenu if it has not been built yet
+     *
+     * @param   handle  The item's handle
+     * @return          The item, {@code null} if it has been removed
+     */
+    public Component get(final int handle)
+    {
+        final WeakReference<?> built = this.components[handle];
+        final Component component = built == null ? null : (Component)(built.get());
+        if (component != null)
+            return component;
+        
+        final WeakReference<Component> reference = this.map.get(this.model.getId(handle));
+        return reference == null ? null : reference.get();
+    }
+    
+    /**
+     * Gets an item, building its submenu if it has not been built yet
+     *
+     * @param   id  The item's ID
+     * @return      The item, {@code null} if the menu has no such item
+     */
+    public Component get(final String id)
+    {
+        final int handle = this.model.getHandle(id);
+        return handle < 0 ? null : get(handle);
+    }
+    
+    /**
+     * Gets the compiled menu the handles belong to
+     *
+     * @return  The compiled menu
+     */
+    public MenuModel getModel()
+    {
+        return this.model;
+    }
+    
+    /**
+     * Gets the {@link HashMap} returned when the menu bar was built
+     *
+     * @return  A {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    public HashMap<String, WeakReference<Component>> asMap()
+    {
+        return this.map;
+    }
+    
+    
+    
+    /**
+     * Sets the item of a handle
+     *
+     * @param  handle     The handle
+     * @param  reference  The reference, in the map, to the item, {@code null} if removed
+     */
+    void set(final int handle, final WeakReference<Component> reference)
+    {
+        this.components[handle] = reference;
+    }
+    
+    /**
+     * Switches to the handles of a recompiled model, the items are taken from the map
+     *
+     * @param  model  The recompiled model
+     */
+    void reset(final MenuModel model)
+    {
+        final WeakReference<?>[] components = new WeakReference<?>[model.getIdCount()];
+        for (final Map.Entry<String, WeakReference<Component>> entry : this.map.entrySet())
+        {
+            final int handle = model.getHandle(entry.getKey());
+            if (handle >= 0)
+                components[handle] = entry.getValue();
+        }
+        this.model = model;
+        this.components = components;
+    }
+    
+}
+
+
@@ -0,0 +1,167 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import java.util.*;
+
+
+/**
+ * Tokenised line of menu markup, possibly spanning several physical lines
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+final class MenuLine
+{
+    /**
+     * Constructor
+     *
+     * @param  source  The tokeniser over the file the line is in
+     * @param  index   The index of the logical line in the file
+     */
+    MenuLine(final MenuTokenizer source, final int index)
+    {
+        this.source = source;
+        this.index = index;
+        this.file = source.getFile();
+        this.line = source.getLineNumber(index);
+    }
+    
+    
+    
+    /**
+     * Verbosity directive: none
+     */
+    static final int KEEP = 0;
+    
+    /**
+     * Verbosity directive: {@code &quite!}
+     */
+    static final int QUITE = 1;
+    
+    /**
+     * Verbosity directive: {@code &verbose!}
+     */
+    static final int VERBOSE = 2;
+    
+    
+    
+    /**
+     * The tokeniser over the file the line is in
+     */
+    final MenuTokenizer source;
+    
+    /**
+     * The index of the logical line in the file
+     */
+    final int index;
+    
+    /**
+     * The file the line is in
+     */
+    final String file;
+    
+    /**
+     * The (first) line number
+     */
+    final int line;
+    
+    /**
+     * The included file, {@code null} if the line is not a file inclusion
+     */
+    String include = null;
+    
+    /**
+     * The canonical path of the included file
+     */
+    String includeKey = null;
+    
+    /**
+     * The last verbosity directive on the line
+     */
+    int verbosity = KEEP;
+    
+    /**
+     * The kind of item the line defines, {@link MenuNode.Kind#ITEM} for all buttons, {@code null} if none
+     */
+    MenuNode.Kind kind = null;
+    
+    /**
+     * The caption, the empty indicator's caption for tags or the alive indicator's caption
+     */
+    String caption = null;
+    
+    /**
+     * The tag name
+     */
+    String tag = null;
+    
+    /**
+     * The index of the bang mnemonic in the caption, -1 if none
+     */
+    int bang = -1;
+    
+    /**
+     * Whether the line has the push token
+     */
+    boolean push = false;
+    
+    /**
+     * Whether the line has the pop token
+     */
+    boolean pop = false;
+    
+    /**
+     * Whether the line pushes a button group
+     */
+    boolean group = false;
+    
+    /**
+     * Whether the line pushes a null group
+     */
+    boolean nullgroup = false;
+    
+    /**
+     * Whether the line pops a group
+     */
+    boolean ungroup = false;
+    
+    /**
+     * Whether the line has the disabled token
+     */
+    boolean disabled = false;
+    
+    /**
+     * Whether the line has the enabled token
+     */
+    boolean enabled = false;
+    
+    /**
+     * Whether the line has the hidden token
+     */
+    boolean hidden = false;
+    
+    /**
+     * The unparsed settings, {@code null} if none
+     */
+    ArrayList<String> settings = null;
+    
+}
+
+
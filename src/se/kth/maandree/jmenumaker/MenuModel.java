@@ -0,0 +1,281 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+import java.lang.ref.*;
+
+
+/**
+ * Compiled menu markup; an immutable tree of menu nodes which can
+ * be instantiated into any number of windows without parsing again
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class MenuModel
+{
+    /**
+     * Constructor
+     *
+     * @param  file     The file the model was compiled from
+     * @param  root     The root node, representing the menu bar
+     * @param  groups   The number of button groups
+     * @param  sources  The files the model was compiled from, the root file first
+     */
+    MenuModel(final String file, final MenuNode root, final int groups, final MenuSource[] sources)
+    {
+        this.file = file;
+        this.root = root;
+        this.groups = groups;
+        this.sources = sources;
+        index(root);
+        this.ids = this.idList.toArray(new String[this.idList.size()]);
+        this.idList = null;
+    }
+    
+    
+    
+    /**
+     * The file the model was compiled from
+     */
+    private final String file;
+    
+    /**
+     * The root node, representing the menu bar
+     */
+    private final MenuNode root;
+    
+    /**
+     * The number of button groups
+     */
+    private final int groups;
+    
+    /**
+     * The files the model was compiled from, the root file first
+     */
+    private final MenuSource[] sources;
+    
+    /**
+     * Map from handles to IDs
+     */
+    private final String[] ids;
+    
+    /**
+     * Map from IDs to handles
+     */
+    private final HashMap<String, Integer> handles = new HashMap<String, Integer>();
+    
+    /**
+     * Map from the nodes that own an ID to their handles
+     */
+    private final IdentityHashMap<MenuNode, Integer> nodeHandles = new IdentityHashMap<MenuNode, Integer>();
+    
+    /**
+     * The IDs in handle order, only used while indexing
+     */
+    private ArrayList<String> idList = new ArrayList<String>();
+    
+    
+    
+    /**
+     * Compiles a menu markup file
+     *
+     * @param   file  The file containing the menu configurations
+     * @return        The compiled menu
+     *
+     * @throws  IOException  If the configuration file cannot be read
+     */
+    public static MenuModel compile(final String file) throws IOException
+    {
+        return MenuCompiler.compile(file, JMenuMaker.parallelIncludes);
+    }
+    
+    /**
+     * Compiles a menu markup file, included files are spliced in document order either way
+     *
+     * @param   file      The file containing the menu configurations
+     * @param   parallel  Whether to read and tokenise included files in parallel
+     * @return            The compiled menu
+     *
+     * @throws  IOException  If the configuration file, or an included file, cannot be read
+     */
+    public static MenuModel compile(final String file, final boolean parallel) throws IOException
+    {
+        return MenuCompiler.compile(file, parallel);
+    }
+    
+    
+    
+    /**
+     * Gives the nodes with IDs their handles, in document order
+     *
+     * @param  node  The node to index, along with its descendants
+     */
+    private void index(final MenuNode node)
+    {
+        final String id = node.getSettings().getId();
+        if ((id != null) && node.hasComponent() && (this.handles.containsKey(id) == false))
+        {
+            final Integer handle = Integer.valueOf(this.idList.size());
+            this.handles.put(id, handle);
+            this.nodeHandles.put(node, handle);
+            this.idList.add(id);
+        }
+        
+        for (int i = 0, n = node.getChildCount(); i < n; i++)
+            index(node.getChild(i));
+    }
+    
+    
+    
+    /**
+     * Gets the file the model was compiled from
+     *
+     * @return  The file the model was compiled from
+     */
+    public String getFile()
+    {
+        return this.file;
+    }
+    
+    /**
+     * Gets the root node, representing the menu bar
+     *
+     * @return  The root node
+     */
+    public MenuNode getRoot()
+    {
+        return this.root;
+    }
+    
+    /**
+     * Gets the number of button groups, each instantiation creates its own button groups
+     *
+     * @return  The number of button groups
+     */
+    public int getGroupCount()
+    {
+        return this.groups;
+    }
+    
+    /**
+     * Gets the files the model was compiled from, the root file first followed by included files
+     *
+     * @return  The files the model was compiled from
+     */
+    public MenuSource[] getSources()
+    {
+        return this.sources.clone();
+    }
+    
+    /**
+     * Gets the number of IDs, handles are 0 up to, but not including, this number
+     *
+     * @return  The number of IDs
+     */
+    public int getIdCount()
+    {
+        return this.ids.length;
+    }
+    
+    /**
+     * Gets the handle of an ID
+     *
+     * @param   id  The ID
+     * @return      The ID's handle, -1 if the model has no such ID
+     */
+    public int getHandle(final String id)
+    {
+        final Integer handle = this.handles.get(id);
+        return handle == null ? -1 : handle.intValue();
+    }
+    
+    /**
+     * Gets the handle of a node
+     *
+     * @param   node  The node
+     * @return        The node's handle, -1 if the node is not in the model or does not own an ID
+     */
+    public int getHandle(final MenuNode node)
+    {
+        final Integer handle = this.nodeHandles.get(node);
+        return handle == null ? -1 : handle.intValue();
+    }
+    
+    /**
+     * Gets the ID of a handle
+     *
+     * @param   handle  The handle
+     * @return          The handle's ID
+     */
+    public String getId(final int handle)
+    {
+        return this.ids[handle];
+    }
+    
+    /**
+     * Checks whether any of the files the model was compiled from has been modified since
+     *
+     * @return  Whether the model is stale
+     */
+    public boolean isStale()
+    {
+        for (final MenuSource source : this.sources)
+            if (source.isStale())
+                return true;
+        return false;
+    }
+    
+    
+    
+    /**
+     * Decorates the window, building the components but without parsing anything
+     *
+     * @param   window    Windows do decorate, must be {@link javax.swing.JFrame}, {@link javax.swing.JDialog} or {@link javax.swing.JInternalFrame}
+     * @param   listener  Update listener for the menu items
+     * @param   menp      Menp instance for auto invocation
+     * @return            A {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    public HashMap<String, WeakReference<Component>> instantiate(final Container window, final UpdateListener listener, final Menp menp)
+    {
+        return instantiate(window, listener, menp, JMenuMaker.lazySubmenus);
+    }
+    
+    /**
+     * Decorates the window, building the components but without parsing anything
+     *
+     * @param   window    Windows do decorate, must be {@link javax.swing.JFrame}, {@link javax.swing.JDialog} or {@link javax.swing.JInternalFrame}
+     * @param   listener  Update listener for the menu items
+     * @param   menp      Menp instance for auto invocation
+     * @param   lazy      Whether to build the contents of submenus when they are first opened, IDs
+     *                    in unbuilt submenus are built when they are looked up in the returned map
+     * @return            A {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    public HashMap<String, WeakReference<Component>> instantiate(final Container window, final UpdateListener listener, final Menp menp,
+                                                                 final boolean lazy)
+    {
+        return (new MenuBuilder(this, null, listener, menp, lazy)).build(window);
+    }
+    
+}
+
+
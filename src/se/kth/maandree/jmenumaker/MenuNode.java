@@ -0,0 +1,340 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+
+/**
+ * Immutable node in a compiled menu model, one node per item line in the menu markup
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class MenuNode
+{
+    /**
+     * Node kinds
+     */
+    public static enum Kind
+    {
+        /**
+         * The menu bar, the root of the tree
+         */
+        ROOT,
+        
+        /**
+         * Regular menu item
+         */
+        ITEM,
+        
+        /**
+         * Menu, an item with the push token
+         */
+        MENU,
+        
+        /**
+         * Check box menu item
+         */
+        CHECK,
+        
+        /**
+         * Radio button menu item
+         */
+        RADIO,
+        
+        /**
+         * Hard separator
+         */
+        SEPARATOR,
+        
+        /**
+         * Weak separator
+         */
+        WEAK_SEPARATOR,
+        
+        /**
+         * Dynamic spacer
+         */
+        SPACER,
+        
+        /**
+         * Slider
+         */
+        SLIDER,
+        
+        /**
+         * Menu tag, with or without an empty indicator
+         */
+        TAG;
+        
+        
+        /**
+         * Gets whether the kind is built as an {@link javax.swing.AbstractButton}
+         *
+         * @return  Whether the kind is a button kind
+         */
+        public boolean isButton()
+        {
+            return (this == ITEM) || (this == MENU) || (this == CHECK) || (this == RADIO);
+        }
+    }
+    
+    
+    
+    /**
+     * Constructor
+     *
+     * @param  kind      The kind of the node
+     * @param  caption   The caption, empty indicator caption for tags, or {@code null}
+     * @param  tag       The tag name for tags and alive indicators, otherwise {@code null}
+     * @param  selected  Whether a check box or radio button is initially selected
+     * @param  disabled  Whether the item is disabled
+     * @param  hidden    Whether the item is hidden
+     * @param  group     The index of the item's button group, -1 if none
+     * @param  settings  The item's settings
+     * @param  file      The file the item was defined in
+     * @param  line      The line the item was defined at
+     * @param  children  The node's children
+     */
+    MenuNode(final Kind kind, final String caption, final String tag, final boolean selected, final boolean disabled,
+             final boolean hidden, final int group, final MenuSettings settings, final String file, final int line,
+             final MenuNode[] children)
+    {
+        this.kind = kind;
+        this.caption = caption;
+        this.tag = tag;
+        this.selected = selected;
+        this.disabled = disabled;
+        this.hidden = hidden;
+        this.group = group;
+        this.settings = settings;
+        this.file = file;
+        this.line = line;
+        this.children = children;
+    }
+    
+    
+    
+    /**
+     * No children
+     */
+    static final MenuNode[] NO_CHILDREN = {};
+    
+    
+    
+    /**
+     * The kind of the node
+     */
+    private final Kind kind;
+    
+    /**
+     * The caption, empty indicator caption for tags, or {@code null}
+     */
+    private final String caption;
+    
+    /**
+     * The tag name for tags and alive indicators, otherwise {@code null}
+     */
+    private final String tag;
+    
+    /**
+     * Whether a check box or radio button is initially selected
+     */
+    private final boolean selected;
+    
+    /**
+     * Whether the item is disabled
+     */
+    private final boolean disabled;
+    
+    /**
+     * Whether the item is hidden
+     */
+    private final boolean hidden;
+    
+    /**
+     * The index of the item's button group, -1 if none
+     */
+    private final int group;
+    
+    /**
+     * The item's settings
+     */
+    private final MenuSettings settings;
+    
+    /**
+     * The file the item was defined in
+     */
+    private final String file;
+    
+    /**
+     * The line the item was defined at
+     */
+    private final int line;
+    
+    /**
+     * The node's children
+     */
+    private final MenuNode[] children;
+    
+    
+    
+    /**
+     * Gets the kind of the node
+     *
+     * @return  The kind of the node
+     */
+    public Kind getKind()
+    {
+        return this.kind;
+    }
+    
+    /**
+     * Gets the caption, for tags this is the empty indicator's caption
+     *
+     * @return  The caption, {@code null} if none
+     */
+    public String getCaption()
+    {
+        return this.caption;
+    }
+    
+    /**
+     * Gets the tag name, for button kinds this is the tag the item is an alive indicator for
+     *
+     * @return  The tag name, {@code null} if none
+     */
+    public String getTag()
+    {
+        return this.tag;
+    }
+    
+    /**
+     * Gets the item's ID, not-IDs are prefixed with a NUL character
+     *
+     * @return  The item's ID, {@code null} if none
+     */
+    public String getId()
+    {
+        return this.settings.getId();
+    }
+    
+    /**
+     * Gets whether a check box or radio button is initially selected
+     *
+     * @return  Whether the item is initially selected
+     */
+    public boolean isSelected()
+    {
+        return this.selected;
+    }
+    
+    /**
+     * Gets whether the item is disabled
+     *
+     * @return  Whether the item is disabled
+     */
+    public boolean isDisabled()
+    {
+        return this.disabled;
+    }
+    
+    /**
+     * Gets whether the item is hidden
+     *
+     * @return  Whether the item is hidden
+     */
+    public boolean isHidden()
+    {
+        return this.hidden;
+    }
+    
+    /**
+     * Gets the index of the item's button group
+     *
+     * @return  The index of the item's button group, -1 if none
+     */
+    public int getGroup()
+    {
+        return this.group;
+    }
+    
+    /**
+     * Gets the item's settings
+     *
+     * @return  The item's settings
+     */
+    public MenuSettings getSettings()
+    {
+        return this.settings;
+    }
+    
+    /**
+     * Gets the file the item was defined in
+     *
+     * @return  The file the item was defined in
+     */
+    public String getFile()
+    {
+        return this.file;
+    }
+    
+    /**
+     * Gets the line the item was defined at
+     *
+     * @return  The line the item was defined at
+     */
+    public int getLine()
+    {
+        return this.line;
+    }
+    
+    /**
+     * Gets the number of children
+     *
+     * @return  The number of children
+     */
+    public int getChildCount()
+    {
+        return this.children.length;
+    }
+    
+    /**
+     * Gets a child
+     *
+     * @param   index  The index of the child
+     * @return         The child
+     */
+    public MenuNode getChild(final int index)
+    {
+        return this.children[index];
+    }
+    
+    /**
+     * Gets whether the node builds a component
+     *
+     * @return  Whether the node builds a component
+     */
+    public boolean hasComponent()
+    {
+        return (this.kind != Kind.TAG) || (this.caption != null);
+    }
+    
+}
+
+
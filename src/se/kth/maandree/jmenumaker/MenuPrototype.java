@@ -0,0 +1,192 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.ref.*;
+
+
+/**
+ * Menu bar prototype; a compiled menu with all its resources resolved,
+ * from which menu bars for new windows are stamped out.
+ * <p>
+ * Captions, keystrokes and the button group layout are taken from the model and
+ * icons are resolved once, and kept for as long as the prototype is, so stamping
+ * a copy only creates the Swing components. Every copy gets its own ID map, its
+ * own listeners, its own button groups and its own weak separator registration.
+ * Menu tags are process-wide, and are shared by all copies.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class MenuPrototype
+{
+    /**
+     * Constructor
+     *
+     * @param  model  The compiled menu
+     */
+    public MenuPrototype(final MenuModel model)
+    {
+        this.model = model;
+        resolveIcons(model.getRoot());
+    }
+    
+    
+    
+    /**
+     * The compiled menu
+     */
+    private final MenuModel model;
+    
+    /**
+     * Map from icon files to the resolved icons
+     */
+    private final HashMap<String, Icon> icons = new HashMap<String, Icon>();
+    
+    
+    
+    /**
+     * Creates a prototype for a menu markup file, the compiled menu is
+     * taken from the {@linkplain MenuCache#getShared() shared menu cache}
+     *
+     * @param   file  The file containing the menu configurations
+     * @return        The prototype
+     *
+     * @throws  IOException  If the configuration file cannot be read
+     */
+    public static MenuPrototype create(final String file) throws IOException
+    {
+        return new MenuPrototype(MenuCache.getShared().get(file));
+    }
+    
+    
+    
+    /**
+     * Resolves the icons of a node and its descendants
+     *
+     * @param  node  The node
+     */
+    private void resolveIcons(final MenuNode node)
+    {
+        final MenuSettings settings = node.getSettings();
+        for (int i = 0; i < MenuSettings.ICON_COUNT; i++)
+        {
+            final String icon = settings.getIcon(i);
+            if ((icon != null) && (this.icons.containsKey(icon) == false))
+                this.icons.put(icon, IconCache.getShared().get(icon));
+        }
+        
+        for (int i = 0, n = node.getChildCount(); i < n; i++)
+            resolveIcons(node.getChild(i));
+    }
+    
+    /**
+     * Gets a resolved icon
+     *
+     * @param   file  The icon file
+     * @return        The icon
+     */
+    Icon getIcon(final String file)
+    {
+        final Icon icon = this.icons.get(file);
+        return icon != null ? icon : IconCache.getShared().get(file);
+    }
+    
+    /**
+     * Gets the compiled menu
+     *
+     * @return  The compiled menu
+     */
+    public MenuModel getModel()
+    {
+        return this.model;
+    }
+    
+    
+    
+    /**
+     * Decorates the window with a copy of the menu bar
+     *
+     * @param   window    Windows do decorate, must be {@link JFrame}, {@link JDialog} or {@link JInternalFrame}
+     * @param   listener  Update listener for the menu items
+     * @param   menp      Menp instance for auto invocation
+     * @return            A {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    public HashMap<String, WeakReference<Component>> stamp(final Container window, final UpdateListener listener, final Menp menp)
+    {
+        return stamp(window, listener, menp, JMenuMaker.lazySubmenus);
+    }
+    
+    /**
+     * Decorates the window with a copy of the menu bar
+     *
+     * @param   window    Windows do decorate, must be {@link JFrame}, {@link JDialog} or {@link JInternalFrame}
+     * @param   listener  Update listener for the menu items
+     * @param   menp      Menp instance for auto invocation
+     * @param   lazy      Whether to build the contents of submenus when they are first opened
+     * @return            A {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    public HashMap<String, WeakReference<Component>> stamp(final Container window, final UpdateListener listener, final Menp menp,
+                                                           final boolean lazy)
+    {
+        return (new MenuBuilder(this.model, this, listener, menp, lazy)).build(window);
+    }
+    
+    /**
+     * Decorates the window with a copy of the menu bar, on the event dispatch thread with a
+     * bounded number of components built per event, so that the user interface stays responsive
+     *
+     * @param   window    Windows do decorate, must be {@link JFrame}, {@link JDialog} or {@link JInternalFrame}
+     * @param   listener  Update listener for the menu items
+     * @param   menp      Menp instance for auto invocation
+     * @param   batch     The maximum number of components to build per event
+     * @return            Completed, on the event dispatch thread, with a {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    public CompletableFuture<HashMap<String, WeakReference<Component>>> stampLater(final Container window, final UpdateListener listener,
+                                                                                  final Menp menp, final int batch)
+    {
+        final CompletableFuture<HashMap<String, WeakReference<Component>>> rc = new CompletableFuture<HashMap<String, WeakReference<Component>>>();
+        stampLater(window, listener, menp, batch, rc);
+        return rc;
+    }
+    
+    /**
+     * Decorates the window with a copy of the menu bar, on the event dispatch thread with a
+     * bounded number of components built per event, so that the user interface stays responsive
+     *
+     * @param  window    Windows do decorate, must be {@link JFrame}, {@link JDialog} or {@link JInternalFrame}
+     * @param  listener  Update listener for the menu items
+     * @param  menp      Menp instance for auto invocation
+     * @param  batch     The maximum number of components to build per event
+     * @param  future    Completed with a {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    void stampLater(final Container window, final UpdateListener listener, final Menp menp, final int batch,
+                    final CompletableFuture<HashMap<String, WeakReference<Component>>> future)
+    {
+        (new MenuBuilder(this.model, this, listener, menp, JMenuMaker.lazySubmenus)).buildLater(window, batch, future);
+    }
+    
+}
+
+
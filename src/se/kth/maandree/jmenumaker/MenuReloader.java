@@ -0,0 +1,319 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.lang.ref.*;
+
+
+/**
+ * Hot reloader for a menu bar; watches the menu markup file, and the files it includes,
+ * and patches the live menu bar when any of them is modified.
+ * <p>
+ * Only the modified files are read and tokenised again, and only the components whose
+ * markup has changed are added, removed or updated, so IDs, listeners, selection states
+ * and slider values of unchanged items are kept. If the modified markup cannot be compiled
+ * the error is printed and the menu bar is left as it is.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class MenuReloader implements Closeable
+{
+    /**
+     * The time to wait for more modifications before reloading, in milliseconds
+     */
+    private static final long DEBOUNCE = 100;
+    
+    
+    
+    /**
+     * Constructor
+     *
+     * @param  file       The file containing the menu configurations
+     * @param  builder    The builder of the menu bar
+     * @param  lines      Map from canonical paths to the tokenised files of the menu
+     * @param  model      The compiled menu
+     * @param  menuItems  The menu IDs
+     *
+     * @throws  IOException  If the files cannot be watched
+     */
+    private MenuReloader(final String file, final MenuBuilder builder, final HashMap<String, MenuCompiler.TokenisedFile> lines,
+                         final MenuModel model, final HashMap<String, WeakReference<Component>> menuItems) throws IOException
+    {
+        this.file = file;
+        this.builder = builder;
+        this.lines = lines;
+        this.model = model;
+        this.menuItems = menuItems;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        
+        watchSources();
+        
+        this.thread = new Thread("JMenuMaker reloader: " + file)
+                {
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public void run()
+                    {
+                        MenuReloader.this.watch();
+                    }
+                };
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    
+    
+    /**
+     * The file containing the menu configurations
+     */
+    private final String file;
+    
+    /**
+     * The builder of the menu bar
+     */
+    private final MenuBuilder builder;
+    
+    /**
+     * Map from canonical paths to the tokenised files of the menu, only accessed while holding the monitor
+     */
+    private final HashMap<String, MenuCompiler.TokenisedFile> lines;
+    
+    /**
+     * The menu IDs
+     */
+    private final HashMap<String, WeakReference<Component>> menuItems;
+    
+    /**
+     * The file system watcher
+     */
+    private final WatchService watcher;
+    
+    /**
+     * Map from watch keys to the directories they watch
+     */
+    private final HashMap<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+    
+    /**
+     * The watching thread
+     */
+    private final Thread thread;
+    
+    /**
+     * The currently compiled menu
+     */
+    private volatile MenuModel model;
+    
+    /**
+     * Whether the last reload failed, in which case the next modification reloads the menu
+     */
+    private boolean failed = false;
+    
+    
+    
+    /**
+     * Decorates the window and reloads the menu bar whenever the configuration files are modified,
+     * the menu bar is patched on the event dispatch thread
+     *
+     * @param   window    Windows do decorate, must be {@link JFrame}, {@link JDialog} or {@link JInternalFrame}
+     * @param   file      The file containing the menu configurations
+     * @param   listener  Update listener for the menu items
+     * @param   menp      Menp instance for auto invocation
+     * @return            The reloader, close it to stop watching
+     *
+     * @throws  IOException  If the configuration file cannot be read or watched
+     */
+    public static MenuReloader watch(final Container window, final String file, final UpdateListener listener, final Menp menp)
+                                     throws IOException
+    {
+        final HashMap<String, MenuCompiler.TokenisedFile> lines = new HashMap<String, MenuCompiler.TokenisedFile>();
+        final MenuModel model = MenuCompiler.compile(file, JMenuMaker.parallelIncludes, lines);
+        final MenuBuilder builder = new MenuBuilder(model, null, listener, menp, JMenuMaker.lazySubmenus);
+        builder.track();
+        
+        return new MenuReloader(file, builder, lines, model, builder.build(window));
+    }
+    
+    
+    
+    /**
+     * Gets the menu IDs, the map is updated when the menu bar is patched
+     *
+     * @return  A {@link HashMap} with all menus, with an ID, added by the menu maker
+     */
+    public HashMap<String, WeakReference<Component>> getMenuItems()
+    {
+        return this.menuItems;
+    }
+    
+    /**
+     * Gets the handles of the menu items, handles must be looked up again when the menu bar is patched
+     *
+     * @return  The handles of the menu items
+     */
+    public MenuHandles getHandles()
+    {
+        return MenuHandles.of(this.menuItems);
+    }
+    
+    /**
+     * Gets the currently compiled menu
+     *
+     * @return  The currently compiled menu
+     */
+    public MenuModel getModel()
+    {
+        return this.model;
+    }
+    
+    /**
+     * Reads all configuration files again and patches the menu bar
+     *
+     * @throws  IOException  If the configuration file, or an included file, cannot be read
+     */
+    public void reload() throws IOException
+    {
+        synchronized (this)
+        {
+            this.lines.clear();
+            recompile();
+        }
+    }
+    
+    /**
+     * Stops watching the configuration files
+     *
+     * @throws  IOException  If the file system watcher cannot be closed
+     */
+    public void close() throws IOException
+    {
+        this.thread.interrupt();
+        this.watcher.close();
+    }
+    
+    
+    
+    /**
+     * Compiles the menu, reusing tokenised files that have not been modified,
+     * and patches the menu bar on the event dispatch thread
+     *
+     * @throws  IOException  If the configuration file, or an included file, cannot be read
+     */
+    private void recompile() throws IOException
+    {
+        final MenuModel model = MenuCompiler.compile(this.file, JMenuMaker.parallelIncludes, this.lines);
+        this.model = model;
+        watchSources();
+        
+        SwingUtilities.invokeLater(new Runnable()
+                {
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public void run()
+                    {
+                        MenuReloader.this.builder.patch(model);
+                    }
+                });
+    }
+    
+    /**
+     * Starts watching the directories of all configuration files that are not already watched
+     *
+     * @throws  IOException  If a directory cannot be watched
+     */
+    private void watchSources() throws IOException
+    {
+        synchronized (this.directories)
+        {
+            for (final String source : this.lines.keySet())
+            {
+                final Path directory = Paths.get(source).getParent();
+                if (this.directories.containsValue(directory) == false)
+                    this.directories.put(directory.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                                                          StandardWatchEventKinds.ENTRY_MODIFY), directory);
+            }
+        }
+    }
+    
+    /**
+     * Waits for modifications and reloads the menu until closed
+     */
+    private void watch()
+    {
+        final HashSet<String> modified = new HashSet<String>();
+        try
+        {
+            for (;;)
+            {
+                WatchKey key = this.watcher.take();
+                while (key != null)
+                {
+                    final Path directory;
+                    synchronized (this.directories)
+                    {
+                        directory = this.directories.get(key);
+                    }
+                    for (final WatchEvent<?> event : key.pollEvents())
+                        if ((directory != null) && (event.context() instanceof Path))
+                            modified.add(directory.resolve((Path)(event.context())).toString());
+                    key.reset();
+                    key = this.watcher.poll(DEBOUNCE, java.util.concurrent.TimeUnit.MILLISECONDS);
+                }
+                
+                synchronized (this)
+                {
+                    if (this.lines.keySet().removeAll(modified) || this.failed)
+                        try
+                        {
+                            recompile();
+                            this.failed = false;
+                        }
+                        catch (final Exception err)
+                        {
+                            this.failed = true;
+                            if (JMenuMaker.diagnostics.isEnabled(MenuDiagnostics.Level.ERROR))
+                                JMenuMaker.diagnostics.report(MenuDiagnostics.Level.ERROR, this.file, 0, MenuDiagnostics.RELOAD_FAILED,
+                                                              "Menu could not be reloaded: " + err.getMessage());
+                        }
+                }
+                modified.clear();
+            }
+        }
+        catch (final InterruptedException err)
+        {
+            //Closed
+        }
+        catch (final ClosedWatchServiceException err)
+        {
+            //Closed
+        }
+    }
+    
+}
+
+
@@ -0,0 +1,1018 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import javax.swing.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+
+/**
+ * Resolved settings of a menu item, parsed once when the menu markup is compiled
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class MenuSettings
+{
+    /**
+     * Constructor
+     */
+    private MenuSettings()
+    {
+        //Filled in by parse
+    }
+    
+    
+    
+    /**
+     * Settings of items without any settings
+     */
+    static final MenuSettings NONE = new MenuSettings();
+    
+    
+    
+    /**
+     * Parsing state for the settings of one item
+     */
+    private static final class Parser
+    {
+        /**
+         * Constructor
+         *
+         * @param  caption  The item's caption, {@code null} if none
+         * @param  verbose  Whether to report invalid keys
+         */
+        Parser(final String caption, final boolean verbose)
+        {
+            this.caption = caption;
+            this.verbose = verbose;
+        }
+        
+        /**
+         * The settings being parsed
+         */
+        final MenuSettings rc = new MenuSettings();
+        
+        /**
+         * The item's caption, {@code null} if none
+         */
+        final String caption;
+        
+        /**
+         * Whether to report invalid keys
+         */
+        final boolean verbose;
+        
+        /**
+         * The attributes to set on action
+         */
+        final ArrayList<String> setAttributes = new ArrayList<String>();
+        
+        /**
+         * The values to set the attributes to
+         */
+        final ArrayList<String> setValues = new ArrayList<String>();
+        
+        /**
+         * The IDs of the items whose attributes are set
+         */
+        final ArrayList<String> targetIds = new ArrayList<String>();
+    }
+    
+    
+    /**
+     * Parser for one setting name
+     */
+    private static abstract class Setting
+    {
+        /**
+         * Constructor
+         *
+         * @param  name  The setting's name, the part before the equality sign
+         */
+        Setting(final String name)
+        {
+            this.name = name;
+        }
+        
+        /**
+         * The setting's name, the part before the equality sign
+         */
+        final String name;
+        
+        /**
+         * Parses the setting
+         *
+         * @param   parser   The parsing state
+         * @param   setting  The whole setting
+         * @param   value    The setting's value, {@code null} if the setting has no equality sign
+         * @return           Whether the value was understood
+         */
+        abstract boolean parse(final Parser parser, final String setting, final String value);
+    }
+    
+    
+    /**
+     * Parser for icon settings
+     */
+    private static final class IconSetting extends Setting
+    {
+        /**
+         * Constructor
+         *
+         * @param  name   The setting's name
+         * @param  index  The icon index
+         */
+        IconSetting(final String name, final int index)
+        {
+            super(name);
+            this.index = index;
+        }
+        
+        /**
+         * The icon index
+         */
+        private final int index;
+        
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        boolean parse(final Parser parser, final String setting, final String value)
+        {
+            if (value == null)
+                return false;
+            parser.rc.icons[this.index] = JMenuMaker.getStringValue(setting);
+            return true;
+        }
+    }
+    
+    
+    
+    /**
+     * Open addressing hash table of the setting parsers, keyed on the setting name
+     */
+    private static final Setting[] SETTINGS = new Setting[64];
+    
+    
+    
+    /**
+     * Class initialiser
+     */
+    static
+    {
+        register(new Setting("id")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value == null)
+                            return false;
+                        if (parser.rc.id == null)
+                            parser.rc.id = JMenuMaker.getStringValue(setting);
+                        return true;
+                    }
+                });
+        
+        register(new Setting("~id")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value == null)
+                            return false;
+                        if (parser.rc.id == null)
+                            parser.rc.id = '\0' + JMenuMaker.getStringValue(setting);
+                        return true;
+                    }
+                });
+        
+        register(new Setting("type")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if ("check".equals(value))       parser.rc.check = true;
+                        else if ("CHECK".equals(value))  parser.rc.selected = parser.rc.check = true;
+                        else if ("radio".equals(value))  parser.rc.radio = true;
+                        else if ("RADIO".equals(value))  parser.rc.selected = parser.rc.radio = true;
+                        else
+                            return false;
+                        return true;
+                    }
+                });
+        
+        register(new Setting("vertical")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value != null)
+                            return false;
+                        parser.rc.vertical = true;
+                        return true;
+                    }
+                });
+        
+        register(new Setting("coalesce")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value == null)
+                            return false;
+                        final boolean seconds = value.endsWith("s") && (value.endsWith("ms") == false);
+                        final String number = value.substring(0, value.length() - (value.endsWith("ms") ? 2 : seconds ? 1 : 0));
+                        try
+                        {
+                            final int interval = Integer.parseInt(number) * (seconds ? 1000 : 1);
+                            if (interval < 0)
+                                return false;
+                            parser.rc.coalesce = interval;
+                        }
+                        catch (final NumberFormatException err)
+                        {
+                            return false;
+                        }
+                        return true;
+                    }
+                });
+        
+        register(new Setting("onRelease")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value != null)
+                            return false;
+                        parser.rc.onRelease = true;
+                        return true;
+                    }
+                });
+        
+        register(new Setting("rolloverable")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if ((value == null) || value.equals("true"))  parser.rc.rolloverable = Boolean.TRUE;
+                        else if (value.equals("false"))                parser.rc.rolloverable = Boolean.FALSE;
+                        else
+                            return false;
+                        return true;
+                    }
+                });
+        
+        register(new Setting("min")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        final Integer number = parseInteger(value);
+                        if (number == null)
+                            return false;
+                        parser.rc.min = number.intValue();
+                        return true;
+                    }
+                });
+        
+        register(new Setting("max")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        final Integer number = parseInteger(value);
+                        if (number == null)
+                            return false;
+                        parser.rc.max = number.intValue();
+                        return true;
+                    }
+                });
+        
+        register(new Setting("value")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        final Integer number = parseInteger(value);
+                        if (number == null)
+                            return false;
+                        parser.rc.value = number.intValue();
+                        return true;
+                    }
+                });
+        
+        register(new Setting("extent")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        final Integer number = parseInteger(value);
+                        if (number == null)
+                            return false;
+                        parser.rc.extent = number.intValue();
+                        return true;
+                    }
+                });
+        
+        register(new Setting("invoke")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value == null)
+                            return false;
+                        parser.rc.invoke = value;
+                        return true;
+                    }
+                });
+        
+        register(new Setting("mnemonic")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value == null)
+                            return false;
+                        parser.rc.mnemonic = JMenuMaker.parseKeyCode(value, parser.verbose);
+                        parser.rc.mnemonicIndex = -1;
+                        return true;
+                    }
+                });
+        
+        register(new Setting("mnemonicIndex")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        final Integer index = parseInteger(value);
+                        if (index == null)
+                            return false;
+                        if (parser.caption != null)
+                        {
+                            if ((index.intValue() < 0) || (index.intValue() >= parser.caption.length()))
+                                return false;
+                            parser.rc.mnemonic = (int)(parser.caption.charAt(index.intValue()));
+                            parser.rc.mnemonicIndex = index.intValue();
+                        }
+                        return true;
+                    }
+                });
+        
+        register(new Setting("accelerator")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value == null)
+                            return false;
+                        parser.rc.accelerator = JMenuMaker.parseKeyStroke(value, parser.verbose);
+                        parser.rc.acceleratorText = value;
+                        return true;
+                    }
+                });
+        
+        register(new Setting("setAttribute")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value == null)
+                            return false;
+                        for (final String part : value.split(";"))
+                            parser.setAttributes.add(part);
+                        return true;
+                    }
+                });
+        
+        register(new Setting("setValue")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value == null)
+                            return false;
+                        parser.setValues.addAll(JMenuMaker.getStringValues(setting));
+                        return true;
+                    }
+                });
+        
+        register(new Setting("targetId")
+                {
+                    @Override
+                    boolean parse(final Parser parser, final String setting, final String value)
+                    {
+                        if (value == null)
+                            return false;
+                        parser.targetIds.addAll(JMenuMaker.getStringValues(setting));
+                        return true;
+                    }
+                });
+        
+        register(new IconSetting("icon",                   MenuSettings.ICON));
+        register(new IconSetting("icon@disabled",          MenuSettings.DISABLED_ICON));
+        register(new IconSetting("icon@disabled&selected", MenuSettings.DISABLED_SELECTED_ICON));
+        register(new IconSetting("icon@selected&disabled", MenuSettings.DISABLED_SELECTED_ICON));
+        register(new IconSetting("icon@pressed",           MenuSettings.PRESSED_ICON));
+        register(new IconSetting("icon@rollover",          MenuSettings.ROLLOVER_ICON));
+        register(new IconSetting("icon@rollover&selected", MenuSettings.ROLLOVER_SELECTED_ICON));
+        register(new IconSetting("icon@selected&rollover", MenuSettings.ROLLOVER_SELECTED_ICON));
+        register(new IconSetting("icon@selected",          MenuSettings.SELECTED_ICON));
+    }
+    
+    
+    
+    /**
+     * Adds a setting parser to the table
+     *
+     * @param  setting  The setting parser
+     */
+    private static void register(final Setting setting)
+    {
+        final int mask = SETTINGS.length - 1;
+        int i = setting.name.hashCode() & mask;
+        while (SETTINGS[i] != null)
+            i = (i + 1) & mask;
+        SETTINGS[i] = setting;
+    }
+    
+    /**
+     * Looks up the parser for a setting, without creating any strings
+     *
+     * @param   setting  The setting
+     * @param   length   The length of the setting's name
+     * @return           The setting parser, {@code null} if the name is unknown
+     */
+    private static Setting lookup(final String setting, final int length)
+    {
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + setting.charAt(i);
+        
+        final int mask = SETTINGS.length - 1;
+        for (int i = hash & mask; SETTINGS[i] != null; i = (i + 1) & mask)
+            if ((SETTINGS[i].name.length() == length) && setting.startsWith(SETTINGS[i].name))
+                return SETTINGS[i];
+        return null;
+    }
+    
+    /**
+     * Parses an integer setting value
+     *
+     * @param   value  The value, {@code null} if the setting has none
+     * @return         The integer, {@code null} if missing or malformed
+     */
+    private static Integer parseInteger(final String value)
+    {
+        if (value == null)
+            return null;
+        try
+        {
+            return Integer.valueOf(value);
+        }
+        catch (final NumberFormatException err)
+        {
+            return null;
+        }
+    }
+    
+    /**
+     * Parses the settings of an item
+     *
+     * @param   settings  The unparsed settings, in order of appearance
+     * @param   caption   The item's caption, {@code null} if none
+     * @param   bang      The index of the bang mnemonic in the caption, -1 if none
+     * @param   file      The file the item was defined in
+     * @param   line      The line the item was defined at
+     * @param   reported  The unknown settings that have already been reported by the compile
+     * @param   verbose   Whether to report invalid keys
+     * @return            The parsed settings
+     */
+    static MenuSettings parse(final List<String> settings, final String caption, final int bang, final String file, final int line,
+                              final Set<String> reported, final boolean verbose)
+    {
+        final Parser parser = new Parser(caption, verbose);
+        final MenuSettings rc = parser.rc;
+        
+        for (final String setting : settings)
+        {
+            final int eq = setting.indexOf('=');
+            final Setting handler = lookup(setting, eq < 0 ? setting.length() : eq);
+            if ((handler == null) || (handler.parse(parser, setting, eq < 0 ? null : setting.substring(eq + 1)) == false))
+                if (JMenuMaker.diagnostics.isEnabled(MenuDiagnostics.Level.WARN) && reported.add(setting))
+                    JMenuMaker.diagnostics.report(MenuDiagnostics.Level.WARN, file, line, MenuDiagnostics.UNKNOWN_SETTING,
+                                                  "Unknown menu setting ignored at line " + line + " in " + file + ": " + setting);
+        }
+        
+        if ((bang >= 0) && (caption != null))
+        {
+            rc.mnemonic = (int)(caption.charAt(bang));
+            rc.mnemonicIndex = bang;
+        }
+        
+        if (parser.setAttributes.isEmpty() == false)
+            if ((parser.setAttributes.size() == parser.setValues.size()) && (parser.setValues.size() == parser.targetIds.size()))
+            {
+                final ArrayList<AttributeAction> actions = new ArrayList<AttributeAction>();
+                for (int i = 0, n = parser.setAttributes.size(); i < n; i++)
+                {
+                    final AttributeAction action = AttributeAction.compile(parser.setAttributes.get(i), parser.setValues.get(i), parser.targetIds.get(i));
+                    if (action != null)
+                        actions.add(action);
+                    else if (JMenuMaker.diagnostics.isEnabled(MenuDiagnostics.Level.WARN))
+                        JMenuMaker.diagnostics.report(MenuDiagnostics.Level.WARN, file, line, MenuDiagnostics.MALFORMED_ATTRIBUTE_ACTION,
+                                                      "Malformed attribute action ignored at line " + line + " in " + file + ": "
+                                                      + parser.setAttributes.get(i) + "=" + parser.setValues.get(i));
+                }
+                if (actions.isEmpty() == false)
+                    rc.actions = actions.toArray(new AttributeAction[actions.size()]);
+            }
+        
+        return rc;
+    }
+    
+    
+    
+    /**
+     * Writes the settings in the compiled binary format
+     *
+     * @param   out      The output stream
+     * @param   strings  The string table
+     *
+     * @throws  IOException  On I/O exception
+     */
+    void write(final DataOutputStream out, final MenuBinary.StringTable strings) throws IOException
+    {
+        out.writeByte((this.check    ? 1 : 0) | (this.radio ? 2 : 0) | (this.selected ? 4 : 0) | (this.vertical ? 8 : 0)
+                     | (this.rolloverable == null ? 0 : this.rolloverable.booleanValue() ? 16 : 32) | (this.onRelease ? 64 : 0));
+        out.writeInt(strings.get(this.id));
+        out.writeInt(this.min);
+        out.writeInt(this.max);
+        out.writeInt(this.value);
+        out.writeInt(this.extent);
+        out.writeInt(this.coalesce);
+        out.writeInt(strings.get(this.invoke));
+        for (final String icon : this.icons)
+            out.writeInt(strings.get(icon));
+        out.writeInt(this.mnemonic);
+        out.writeInt(this.mnemonicIndex);
+        if (this.accelerator == null)
+            out.writeInt(-1);
+        else
+        {
+            out.writeInt(this.accelerator.getKeyCode());
+            out.writeInt(this.accelerator.getModifiers());
+            out.writeByte(this.accelerator.isOnKeyRelease() ? 1 : 0);
+            out.writeInt(strings.get(this.acceleratorText));
+        }
+        final int n = getSetAttributeCount();
+        out.writeInt(n);
+        for (int i = 0; i < n; i++)
+            this.actions[i].write(out, strings);
+    }
+    
+    /**
+     * Reads settings in the compiled binary format
+     *
+     * @param   buffer   The buffer to read from
+     * @param   strings  The string table
+     * @return           The settings
+     */
+    static MenuSettings read(final ByteBuffer buffer, final String[] strings)
+    {
+        final MenuSettings rc = new MenuSettings();
+        final int flags = buffer.get();
+        rc.check    = (flags & 1) != 0;
+        rc.radio    = (flags & 2) != 0;
+        rc.selected = (flags & 4) != 0;
+        rc.vertical = (flags & 8) != 0;
+        if ((flags & 48) != 0)
+            rc.rolloverable = Boolean.valueOf((flags & 16) != 0);
+        rc.onRelease = (flags & 64) != 0;
+        rc.id     = MenuBinary.string(strings, buffer.getInt());
+        rc.min    = buffer.getInt();
+        rc.max    = buffer.getInt();
+        rc.value  = buffer.getInt();
+        rc.extent = buffer.getInt();
+        rc.coalesce = buffer.getInt();
+        rc.invoke = MenuBinary.string(strings, buffer.getInt());
+        for (int i = 0; i < ICON_COUNT; i++)
+            rc.icons[i] = MenuBinary.string(strings, buffer.getInt());
+        rc.mnemonic = buffer.getInt();
+        rc.mnemonicIndex = buffer.getInt();
+        final int keyCode = buffer.getInt();
+        if (keyCode >= 0)
+        {
+            final int modifiers = buffer.getInt();
+            rc.accelerator = KeyStroke.getKeyStroke(keyCode, modifiers, buffer.get() != 0);
+            rc.acceleratorText = MenuBinary.string(strings, buffer.getInt());
+        }
+        final int n = MenuBinary.length(buffer, 10);
+        if (n > 0)
+        {
+            rc.actions = new AttributeAction[n];
+            for (int i = 0; i < n; i++)
+                rc.actions[i] = AttributeAction.read(buffer, strings);
+        }
+        return rc;
+    }
+    
+    
+    
+    /**
+     * Icon index: the standard icon
+     */
+    public static final int ICON = 0;
+    
+    /**
+     * Icon index: the icon displayed when disabled
+     */
+    public static final int DISABLED_ICON = 1;
+    
+    /**
+     * Icon index: the icon displayed when disabled and selected
+     */
+    public static final int DISABLED_SELECTED_ICON = 2;
+    
+    /**
+     * Icon index: the icon displayed when pressed
+     */
+    public static final int PRESSED_ICON = 3;
+    
+    /**
+     * Icon index: the icon displayed when rolled over
+     */
+    public static final int ROLLOVER_ICON = 4;
+    
+    /**
+     * Icon index: the icon displayed when rolled over and selected
+     */
+    public static final int ROLLOVER_SELECTED_ICON = 5;
+    
+    /**
+     * Icon index: the icon displayed when selected
+     */
+    public static final int SELECTED_ICON = 6;
+    
+    /**
+     * The number of icon indices
+     */
+    public static final int ICON_COUNT = 7;
+    
+    
+    
+    /**
+     * The item's ID, not-IDs are prefixed with a NUL character
+     */
+    private String id = null;
+    
+    /**
+     * Whether the item is a check box
+     */
+    private boolean check = false;
+    
+    /**
+     * Whether the item is a radio button
+     */
+    private boolean radio = false;
+    
+    /**
+     * Whether the check box or radio button is initially selected
+     */
+    private boolean selected = false;
+    
+    /**
+     * Whether the slider is vertical
+     */
+    private boolean vertical = false;
+    
+    /**
+     * The slider's minimum value
+     */
+    private int min = 0;
+    
+    /**
+     * The slider's maximum value
+     */
+    private int max = 0;
+    
+    /**
+     * The slider's initial value
+     */
+    private int value = 0;
+    
+    /**
+     * The slider's extent
+     */
+    private int extent = 0;
+    
+    /**
+     * The minimum number of milliseconds between the slider's value events, 0 if not coalesced
+     */
+    private int coalesce = 0;
+    
+    /**
+     * Whether the slider's value is only reported when the user releases it
+     */
+    private boolean onRelease = false;
+    
+    /**
+     * The Menp method to invoke when the item is clicked
+     */
+    private String invoke = null;
+    
+    /**
+     * The icon files, by icon index
+     */
+    private final String[] icons = new String[ICON_COUNT];
+    
+    /**
+     * Whether roll over is enabled, {@code null} if not specified
+     */
+    private Boolean rolloverable = null;
+    
+    /**
+     * The mnemonic key code, -1 if none
+     */
+    private int mnemonic = -1;
+    
+    /**
+     * The displayed mnemonic index, -1 if not explicitly specified
+     */
+    private int mnemonicIndex = -1;
+    
+    /**
+     * The accelerator, {@code null} if none
+     */
+    private KeyStroke accelerator = null;
+    
+    /**
+     * The accelerator as written in the menu markup
+     */
+    private String acceleratorText = null;
+    
+    /**
+     * The compiled attributes, values and target IDs to set on click, {@code null} if none
+     */
+    private AttributeAction[] actions = null;
+    
+    
+    
+    /**
+     * Gets the item's ID, not-IDs are prefixed with a NUL character
+     *
+     * @return  The item's ID, {@code null} if none
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+    
+    /**
+     * Gets whether the item is a check box
+     *
+     * @return  Whether the item is a check box
+     */
+    public boolean isCheck()
+    {
+        return this.check;
+    }
+    
+    /**
+     * Gets whether the item is a radio button
+     *
+     * @return  Whether the item is a radio button
+     */
+    public boolean isRadio()
+    {
+        return this.radio;
+    }
+    
+    /**
+     * Gets whether the check box or radio button is initially selected
+     *
+     * @return  Whether the item is initially selected
+     */
+    public boolean isSelected()
+    {
+        return this.selected;
+    }
+    
+    /**
+     * Gets whether the slider is vertical
+     *
+     * @return  Whether the slider is vertical
+     */
+    public boolean isVertical()
+    {
+        return this.vertical;
+    }
+    
+    /**
+     * Gets the slider's minimum value
+     *
+     * @return  The slider's minimum value
+     */
+    public int getMin()
+    {
+        return this.min;
+    }
+    
+    /**
+     * Gets the slider's maximum value
+     *
+     * @return  The slider's maximum value
+     */
+    public int getMax()
+    {
+        return this.max;
+    }
+    
+    /**
+     * Gets the slider's initial value
+     *
+     * @return  The slider's initial value
+     */
+    public int getValue()
+    {
+        return this.value;
+    }
+    
+    /**
+     * Gets the slider's extent
+     *
+     * @return  The slider's extent
+     */
+    public int getExtent()
+    {
+        return this.extent;
+    }
+    
+    /**
+     * Gets the minimum number of milliseconds between the slider's value events,
+     * value changes within the interval are coalesced into the latest value
+     *
+     * @return  The interval in milliseconds, 0 if not coalesced
+     */
+    public int getCoalesce()
+    {
+        return this.coalesce;
+    }
+    
+    /**
+     * Gets whether the slider's value is only reported when the user releases it,
+     * and not while it is being dragged
+     *
+     * @return  Whether the value is only reported on release
+     */
+    public boolean isOnRelease()
+    {
+        return this.onRelease;
+    }
+    
+    /**
+     * Gets the Menp method to invoke when the item is clicked
+     *
+     * @return  The method, {@code null} if none
+     */
+    public String getInvoke()
+    {
+        return this.invoke;
+    }
+    
+    /**
+     * Gets an icon file
+     *
+     * @param   index  The icon index, {@link #ICON} or one of the other icon index constants
+     * @return         The icon file, {@code null} if none
+     */
+    public String getIcon(final int index)
+    {
+        return this.icons[index];
+    }
+    
+    /**
+     * Gets whether roll over is enabled
+     *
+     * @return  Whether roll over is enabled, {@code null} if not specified
+     */
+    public Boolean getRolloverable()
+    {
+        return this.rolloverable;
+    }
+    
+    /**
+     * Gets the mnemonic key code
+     *
+     * @return  The mnemonic key code, -1 if none
+     */
+    public int getMnemonic()
+    {
+        return this.mnemonic;
+    }
+    
+    /**
+     * Gets the displayed mnemonic index
+     *
+     * @return  The displayed mnemonic index, -1 if not explicitly specified
+     */
+    public int getMnemonicIndex()
+    {
+        return this.mnemonicIndex;
+    }
+    
+    /**
+     * Gets the accelerator
+     *
+     * @return  The accelerator, {@code null} if none
+     */
+    public KeyStroke getAccelerator()
+    {
+        return this.accelerator;
+    }
+    
+    /**
+     * Gets the accelerator as written in the menu markup
+     *
+     * @return  The accelerator as written, {@code null} if none
+     */
+    public String getAcceleratorText()
+    {
+        return this.acceleratorText;
+    }
+    
+    /**
+     * Gets the number of attributes to set on click
+     *
+     * @return  The number of attributes to set on click
+     */
+    public int getSetAttributeCount()
+    {
+        return this.actions == null ? 0 : this.actions.length;
+    }
+    
+    /**
+     * Gets an attribute to set on click
+     *
+     * @param   index  The index of the attribute
+     * @return         The attribute
+     */
+    public String getSetAttribute(final int index)
+    {
+        return this.actions[index].getAttributeText();
+    }
+    
+    /**
+     * Gets a value to set on click
+     *
+     * @param   index  The index of the attribute
+     * @return         The value, the number followed by the operator, if any
+     */
+    public String getSetValue(final int index)
+    {
+        return this.actions[index].getValueText();
+    }
+    
+    /**
+     * Gets a target ID to set an attribute on on click
+     *
+     * @param   index  The index of the attribute
+     * @return         The target ID
+     */
+    public String getTargetId(final int index)
+    {
+        return this.actions[index].targetId;
+    }
+    
+    /**
+     * Gets a compiled attribute to set on click
+     *
+     * @param   index  The index of the attribute
+     * @return         The compiled attribute, value and target ID
+     */
+    AttributeAction getAttributeAction(final int index)
+    {
+        return this.actions[index];
+    }
+    
+}
+
+
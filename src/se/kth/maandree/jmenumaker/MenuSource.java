@@ -0,0 +1,134 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import java.io.*;
+
+
+/**
+ * A file a menu model was compiled from, with its modification time and size from before it was read
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+public final class MenuSource
+{
+    /**
+     * Constructor
+     *
+     * @param  file          The file
+     * @param  lastModified  The file's modification time
+     * @param  size          The file's size
+     */
+    MenuSource(final String file, final long lastModified, final long size)
+    {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.size = size;
+    }
+    
+    
+    
+    /**
+     * The file
+     */
+    private final String file;
+    
+    /**
+     * The file's modification time
+     */
+    private final long lastModified;
+    
+    /**
+     * The file's size
+     */
+    private final long size;
+    
+    
+    
+    /**
+     * Records the current modification time and size of a file, this must be done
+     * before the file is read, so that a modification while reading makes it stale
+     *
+     * @param   file  The file
+     * @return        The file with its modification time and size
+     */
+    static MenuSource stat(final String file)
+    {
+        final File f = new File(file);
+        return new MenuSource(file, f.lastModified(), f.length());
+    }
+    
+    /**
+     * Gets the same record for another path to the file
+     *
+     * @param   file  The path to the file
+     * @return        The file, by the path, with the recorded modification time and size
+     */
+    MenuSource as(final String file)
+    {
+        return file.equals(this.file) ? this : new MenuSource(file, this.lastModified, this.size);
+    }
+    
+    
+    
+    /**
+     * Gets the file
+     *
+     * @return  The file
+     */
+    public String getFile()
+    {
+        return this.file;
+    }
+    
+    /**
+     * Gets the file's modification time when the model was compiled
+     *
+     * @return  The file's modification time
+     */
+    public long getLastModified()
+    {
+        return this.lastModified;
+    }
+    
+    /**
+     * Gets the file's size when the model was compiled
+     *
+     * @return  The file's size
+     */
+    public long getSize()
+    {
+        return this.size;
+    }
+    
+    /**
+     * Checks whether the file has been modified, or removed, since the model was compiled
+     *
+     * @return  Whether the file has been modified
+     */
+    public boolean isStale()
+    {
+        final File f = new File(this.file);
+        return (f.lastModified() != this.lastModified) || (f.length() != this.size);
+    }
+    
+}
+
+
@@ -0,0 +1,579 @@
+/**
+ * JMenuMaker — Easy, fast, free and flexiable menu system builder for Java.
+ *
+ * Copyright © 2011  Mattias Andrée (maandree@kth.se)
+ *
+ * This library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.kth.maandree.jmenumaker;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+
+
+/**
+ * Cursor based tokeniser for menu markup.
+ * <p>
+ * The whole file is decoded into one {@link CharBuffer}, continued lines are joined in place
+ * in a single pass, and the cursor then reports token kinds and offsets into that buffer.
+ * Strings are only created for tokens whose text is kept.
+ *
+ * @version  1.0
+ * @author   Mattias Andrée, <a href="mailto:maandree@kth.se">maandree@kth.se</a>
+ */
+final class MenuTokenizer
+{
+    /**
+     * Constructor
+     *
+     * @param  file    The file the text was read from
+     * @param  buffer  The decoded text, the buffer's content is modified
+     */
+    MenuTokenizer(final String file, final CharBuffer buffer)
+    {
+        this.file = file;
+        this.text = buffer.array();
+        
+        int r = buffer.arrayOffset() + buffer.position();
+        final int n = r + buffer.remaining();
+        int w = 0, physical = 0;
+        
+        while (r < n)
+        {
+            if (this.lines == this.lineStart.length)
+            {
+                final int size = this.lines << 1;
+                this.lineStart   = Arrays.copyOf(this.lineStart,   size);
+                this.lineEnd     = Arrays.copyOf(this.lineEnd,     size);
+                this.lineNumber  = Arrays.copyOf(this.lineNumber,  size);
+                this.lineInclude = Arrays.copyOf(this.lineInclude, size);
+                this.joinStart   = Arrays.copyOf(this.joinStart,   size + 1);
+            }
+            
+            final int start = w;
+            this.lineStart[this.lines] = start;
+            this.lineNumber[this.lines] = ++physical;
+            this.joinStart[this.lines] = this.joinCount;
+            
+            int include = r;
+            while ((include < n) && ((this.text[include] == ' ') || (this.text[include] == '\t')))
+                include++;
+            include = (include < n) && (this.text[include] == '@') ? include + 1 - r : -1;
+            this.lineInclude[this.lines] = include < 0 ? -1 : start + include;
+            
+            for (;;)
+            {
+                while ((r < n) && (isTerminator(this.text[r]) == false))
+                    this.text[w++] = this.text[r++];
+                
+                if (r < n)
+                    if ((this.text[r++] == '\r') && (r < n) && (this.text[r] == '\n'))
+                        r++;
+                
+                if ((include < 0) && (w > start) && (this.text[w - 1] == '\\') && (r < n))
+                {
+                    if (this.joinCount == this.joins.length)
+                        this.joins = Arrays.copyOf(this.joins, this.joinCount << 1);
+                    this.joins[this.joinCount++] = --w;
+                    physical++;
+                    continue;
+                }
+                break;
+            }
+            
+            this.lineEnd[this.lines++] = w;
+        }
+        this.joinStart[this.lines] = this.joinCount;
+    }
+    
+    
+    
+    /**
+     * Token kind: there are no more tokens in the selected text
+     */
+    static final int END = 0;
+    
+    /**
+     * Token kind: plain word, a keyword, a setting or a tag name
+     */
+    static final int WORD = 1;
+    
+    /**
+     * Token kind: quoted caption
+     */
+    static final int STRING = 2;
+    
+    /**
+     * Token kind: parenthesised special item
+     */
+    static final int SPECIAL = 3;
+    
+    
+    
+    /**
+     * The file the text was read from
+     */
+    private final String file;
+    
+    /**
+     * The buffer's backing array, continued lines joined
+     */
+    private final char[] text;
+    
+    /**
+     * The number of logical lines
+     */
+    private int lines = 0;
+    
+    /**
+     * The start offset of each logical line
+     */
+    private int[] lineStart = new int[64];
+    
+    /**
+     * The end offset of each logical line
+     */
+    private int[] lineEnd = new int[64];
+    
+    /**
+     * The number of the first physical line of each logical line
+     */
+    private int[] lineNumber = new int[64];
+    
+    /**
+     * The offset of the included file's name for each logical line, -1 if the line is not a file inclusion
+     */
+    private int[] lineInclude = new int[64];
+    
+    /**
+     * The index of each logical line's first join in {@link #joins}
+     */
+    private int[] joinStart = new int[65];
+    
+    /**
+     * The offsets at which continued lines were joined
+     */
+    private int[] joins = new int[16];
+    
+    /**
+     * The number of joins
+     */
+    private int joinCount = 0;
+    
+    /**
+     * Scratch space for unquoting captions
+     */
+    private char[] scratch = new char[64];
+    
+    /**
+     * The cursor's position
+     */
+    private int pos;
+    
+    /**
+     * The end of the selected text
+     */
+    private int limit;
+    
+    /**
+     * Whether the selected text is a special item's contents rather than a whole line
+     */
+    private boolean special;
+    
+    /**
+     * Whether a token in the selected text has been prefixed with a bang
+     */
+    private boolean bang;
+    
+    /**
+     * Whether a token in the selected text has been prefixed with a dollar
+     */
+    private boolean rich;
+    
+    /**
+     * The start of the current token
+     */
+    private int start;
+    
+    /**
+     * The end of the current token
+     */
+    private int end;
+    
+    
+    
+    /**
+     * Reads and decodes a file
+     *
+     * @param   file  The file
+     * @return        Tokeniser over the file
+     *
+     * @throws  IOException  If the file cannot be read
+     */
+    static MenuTokenizer open(final String file) throws IOException
+    {
+        final FileInputStream is = new FileInputStream(file);
+        try
+        {
+            final FileChannel channel = is.getChannel();
+            final ByteBuffer bytes = ByteBuffer.allocate((int)(channel.size()));
+            while (bytes.hasRemaining() && (channel.read(bytes) >= 0))
+                ;
+            bytes.flip();
+            
+            final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
+            decoder.onMalformedInput(CodingErrorAction.REPLACE);
+            decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+            return new MenuTokenizer(file, decoder.decode(bytes));
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+    
+    /**
+     * Checks whether a character terminates a line
+     *
+     * @param   c  The character
+     * @return     Whether the character terminates a line
+     */
+    private static boolean isTerminator(final char c)
+    {
+        return (c == '\n') || (c == '\r') || (c == '\u2028') || (c == '\u2029') || (c == '\u0085');
+    }
+    
+    
+    
+    /**
+     * Gets the file the text was read from
+     *
+     * @return  The file the text was read from
+     */
+    String getFile()
+    {
+        return this.file;
+    }
+    
+    /**
+     * Gets the number of logical lines
+     *
+     * @return  The number of logical lines
+     */
+    int getLineCount()
+    {
+        return this.lines;
+    }
+    
+    /**
+     * Gets the number of the first physical line of a logical line
+     *
+     * @param   index  The index of the logical line
+     * @return         The line number
+     */
+    int getLineNumber(final int index)
+    {
+        return this.lineNumber[index];
+    }
+    
+    /**
+     * Gets the number of physical lines appended to a logical line
+     *
+     * @param   index  The index of the logical line
+     * @return         The number of appended lines
+     */
+    int getAppendCount(final int index)
+    {
+        return this.joinStart[index + 1] - this.joinStart[index];
+    }
+    
+    /**
+     * Gets a logical line as it reads after a number of physical lines have been appended
+     *
+     * @param   index     The index of the logical line
+     * @param   appended  The number of appended lines
+     * @return            The text, ending with the continuation backslash unless all lines have been appended
+     */
+    String getText(final int index, final int appended)
+    {
+        final int from = this.lineStart[index];
+        if (appended == getAppendCount(index))
+            return new String(this.text, from, this.lineEnd[index] - from);
+        return new String(this.text, from, this.joins[this.joinStart[index] + appended] - from) + '\\';
+    }
+    
+    /**
+     * Checks whether the first physical line of a logical line starts with a text
+     *
+     * @param   index   The index of the logical line
+     * @param   prefix  The text
+     * @return          Whether the line starts with the text
+     */
+    boolean startsWith(final int index, final String prefix)
+    {
+        final int from = this.lineStart[index];
+        final int to = getAppendCount(index) == 0 ? this.lineEnd[index] : this.joins[this.joinStart[index]];
+        return startsWith(from, to, prefix);
+    }
+    
+    /**
+     * Gets the file included by a logical line
+     *
+     * @param   index  The index of the logical line
+     * @return         The included file, {@code null} if the line is not a file inclusion
+     */
+    String getInclude(final int index)
+    {
+        final int from = this.lineInclude[index];
+        return from < 0 ? null : new String(this.text, from, this.lineEnd[index] - from);
+    }
+    
+    
+    
+    /**
+     * Moves the cursor to a logical line
+     *
+     * @param  index  The index of the logical line
+     */
+    void selectLine(final int index)
+    {
+        select(this.lineStart[index], this.lineEnd[index], false);
+    }
+    
+    /**
+     * Moves the cursor to the contents of a special item token
+     *
+     * @param  from  The start of the token
+     * @param  to    The end of the token
+     */
+    void selectSpecial(final int from, final int to)
+    {
+        select(from + 1, to - 1, true);
+    }
+    
+    /**
+     * Moves the cursor to a range of text
+     *
+     * @param  from     The start of the text
+     * @param  to       The end of the text
+     * @param  special  Whether the text is a special item's contents rather than a whole line
+     */
+    private void select(final int from, final int to, final boolean special)
+    {
+        this.pos = from;
+        this.limit = to;
+        this.special = special;
+        this.bang = this.rich = false;
+        this.start = this.end = from;
+    }
+    
+    /**
+     * Reads the next token
+     *
+     * @return  The kind of the token, {@link #END} if there are no more tokens
+     */
+    int next()
+    {
+        boolean str = false, par = false;
+        int from = -1;
+        
+        for (;;)
+        {
+            if (this.pos >= this.limit)
+            {
+                if ((from < 0) || str || par)
+                    return END;
+                return token(from, this.limit);
+            }
+            
+            final char c = this.text[this.pos++];
+            
+            if ((from < 0) && (c == '!'))
+                this.bang = true;
+            else if ((from < 0) && (c == '$'))
+                this.rich = true;
+            else if (str)
+            {
+                if (c == '"')
+                    str = false;
+            }
+            else if (par)
+            {
+                if (c == ')')
+                    par = false;
+                else if (c == '"')
+                    str = !str;
+            }
+            else if ((c != ' ') && (c != '\t'))
+            {
+                if (from < 0)
+                    from = this.pos - 1;
+                if ((c == '(') && (this.special == false))
+                    par = true;
+                else if (c == '"')
+                    str = true;
+            }
+            else if (from >= 0)
+                return token(from, this.pos - 1);
+        }
+    }
+    
+    /**
+     * Finishes a token
+     *
+     * @param   from  The start of the token
+     * @param   to    The end of the token
+     * @return        The kind of the token
+     */
+    private int token(final int from, final int to)
+    {
+        this.start = from;
+        this.end = to;
+        
+        final char c = this.text[from];
+        if (this.special)
+            return c == '"' ? STRING : WORD;
+        
+        if (c == '#')
+        {
+            this.pos = this.limit;
+            return END;
+        }
+        return c == '"' ? STRING : c == '(' ? SPECIAL : WORD;
+    }
+    
+    
+    
+    /**
+     * Gets whether a token in the selected text has been prefixed with a bang
+     *
+     * @return  Whether a token has been prefixed with a bang
+     */
+    boolean hasBang()
+    {
+        return this.bang;
+    }
+    
+    /**
+     * Gets whether a token in the selected text has been prefixed with a dollar
+     *
+     * @return  Whether a token has been prefixed with a dollar
+     */
+    boolean isRich()
+    {
+        return this.rich;
+    }
+    
+    /**
+     * Gets the start of the current token
+     *
+     * @return  The start offset of the current token
+     */
+    int getStart()
+    {
+        return this.start;
+    }
+    
+    /**
+     * Gets the end of the current token
+     *
+     * @return  The end offset, exclusive, of the current token
+     */
+    int getEnd()
+    {
+        return this.end;
+    }
+    
+    /**
+     * Checks whether the current token is a specific word
+     *
+     * @param   word  The word
+     * @return        Whether the token is the word
+     */
+    boolean is(final String word)
+    {
+        return equals(this.start, this.end, word);
+    }
+    
+    /**
+     * Checks whether a range of the text equals a string
+     *
+     * @param   from  The start of the range
+     * @param   to    The end of the range
+     * @param   word  The string
+     * @return        Whether the range equals the string
+     */
+    boolean equals(final int from, final int to, final String word)
+    {
+        return (to - from == word.length()) && startsWith(from, to, word);
+    }
+    
+    /**
+     * Checks whether a range of the text starts with a string
+     *
+     * @param   from    The start of the range
+     * @param   to      The end of the range
+     * @param   prefix  The string
+     * @return          Whether the range starts with the string
+     */
+    boolean startsWith(final int from, final int to, final String prefix)
+    {
+        if (to - from < prefix.length())
+            return false;
+        for (int i = 0, n = prefix.length(); i < n; i++)
+            if (this.text[from + i] != prefix.charAt(i))
+                return false;
+        return true;
+    }
+    
+    /**
+     * Copies the current token
+     *
+     * @return  The current token's text
+     */
+    String copy()
+    {
+        return new String(this.text, this.start, this.end - this.start);
+    }
+    
+    /**
+     * Unquotes a caption token, quotes and backslashes are unescaped
+     *
+     * @param   start  The start of the token
+     * @param   end    The end of the token
+     * @return         The token's text without the outermost characters
+     */
+    String unquote(final int start, final int end)
+    {
+        final int from = start + 1, to = end - 1;
+        if (this.scratch.length < to - from)
+            this.scratch = new char[to - from];
+        
+        int ptr = 0;
+        for (int i = from; i < to; i++)
+        {
+            final char c = this.text[i];
+            if ((i + 1 < to) && ((c == '"') || (c == '\\')) && (this.text[i + 1] == c))
+                i++;
+            this.scratch[ptr++] = c;
+        }
+        return new String(this.scratch, 0, ptr);
+    }
+    
+}
+
+